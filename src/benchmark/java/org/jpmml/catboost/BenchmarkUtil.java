@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import NCatBoostFbs.TFloatFeature;
+import NCatBoostFbs.TKeyValue;
+import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TObliviousTrees;
+import com.google.common.io.ByteStreams;
+import com.google.flatbuffers.FlatBufferBuilder;
+
+/**
+ * <p>
+ * Benchmark models are identified either by the name of a bundled CBM file (eg. "ClassificationIris"),
+ * or by a synthetic model specification "Synthetic-&lt;trees&gt;x&lt;depth&gt;[x&lt;classes&gt;]" (eg. "Synthetic-1000x6x10").
+ * </p>
+ */
+class BenchmarkUtil {
+
+	private BenchmarkUtil(){
+	}
+
+	static
+	public byte[] loadCbm(String model) throws IOException {
+		Matcher matcher = SYNTHETIC_PATTERN.matcher(model);
+
+		if(matcher.matches()){
+			int numTrees = Integer.parseInt(matcher.group(1));
+			int depth = Integer.parseInt(matcher.group(2));
+			int numClasses = (matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : 0);
+
+			return createSyntheticCbm(numTrees, depth, numClasses);
+		}
+
+		try(InputStream is = BenchmarkUtil.class.getResourceAsStream("/cbm/" + model + ".cbm")){
+
+			if(is == null){
+				throw new IllegalArgumentException(model);
+			}
+
+			return ByteStreams.toByteArray(is);
+		}
+	}
+
+	static
+	public File writeCbm(byte[] cbm) throws IOException {
+		File file = File.createTempFile("benchmark", ".cbm");
+		file.deleteOnExit();
+
+		try(OutputStream os = new FileOutputStream(file)){
+			os.write(cbm);
+		}
+
+		return file;
+	}
+
+	/**
+	 * <p>
+	 * Generates rows that cover the full border range of every float feature.
+	 * Row elements are ordered by float feature index, as expected by {@link CatBoostScorer}.
+	 * </p>
+	 */
+	static
+	public float[][] createRows(TModelCore modelCore, int numRows){
+		TObliviousTrees obliviousTrees = modelCore.ObliviousTrees();
+
+		int floatFeaturesLength = obliviousTrees.FloatFeaturesLength();
+
+		Random random = new Random(42L);
+
+		float[][] rows = new float[numRows][floatFeaturesLength];
+
+		for(int i = 0; i < floatFeaturesLength; i++){
+			TFloatFeature floatFeature = obliviousTrees.FloatFeatures(i);
+
+			int bordersLength = floatFeature.BordersLength();
+
+			float min = (bordersLength > 0 ? floatFeature.Borders(0) : 0f) - 1f;
+			float max = (bordersLength > 0 ? floatFeature.Borders(bordersLength - 1) : 0f) + 1f;
+
+			int index = floatFeature.Index();
+
+			for(int row = 0; row < numRows; row++){
+				rows[row][index] = min + random.nextFloat() * (max - min);
+			}
+		}
+
+		return rows;
+	}
+
+	static
+	private byte[] createSyntheticCbm(int numTrees, int depth, int numClasses){
+		FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+
+		Random random = new Random(42L);
+
+		int numDimensions = Math.max(numClasses, 1);
+
+		int[] floatFeatures = new int[NUM_FEATURES];
+
+		for(int i = 0; i < NUM_FEATURES; i++){
+			float[] borders = new float[NUM_BORDERS];
+
+			for(int j = 0; j < NUM_BORDERS; j++){
+				borders[j] = random.nextFloat();
+			}
+
+			Arrays.sort(borders);
+
+			int bordersOffset = TFloatFeature.createBordersVector(builder, borders);
+			int featureIdOffset = builder.createString("x" + (i + 1));
+
+			floatFeatures[i] = TFloatFeature.createTFloatFeature(builder, false, i, i, bordersOffset, featureIdOffset, (byte)0);
+		}
+
+		int numNodes = (1 << depth);
+
+		int[] treeSplits = new int[numTrees * depth];
+		int[] treeSizes = new int[numTrees];
+		int[] treeStartOffsets = new int[numTrees];
+
+		double[] leafValues = new double[numTrees * numNodes * numDimensions];
+		double[] leafWeights = new double[numTrees * numNodes];
+
+		for(int tree = 0; tree < numTrees; tree++){
+			treeSizes[tree] = depth;
+			treeStartOffsets[tree] = (tree * depth);
+
+			for(int level = 0; level < depth; level++){
+				treeSplits[tree * depth + level] = random.nextInt(NUM_FEATURES * NUM_BORDERS);
+			}
+		}
+
+		for(int i = 0; i < leafValues.length; i++){
+			leafValues[i] = 0.1d * random.nextGaussian();
+		}
+
+		Arrays.fill(leafWeights, 1d);
+
+		int obliviousTreesOffset = TObliviousTrees.createTObliviousTrees(builder,
+			numDimensions,
+			TObliviousTrees.createTreeSplitsVector(builder, treeSplits),
+			TObliviousTrees.createTreeSizesVector(builder, treeSizes),
+			TObliviousTrees.createTreeStartOffsetsVector(builder, treeStartOffsets),
+			0,
+			TObliviousTrees.createFloatFeaturesVector(builder, floatFeatures),
+			0,
+			0,
+			TObliviousTrees.createLeafValuesVector(builder, leafValues),
+			TObliviousTrees.createLeafWeightsVector(builder, leafWeights),
+			0,
+			0
+		);
+
+		String params = "{\"loss_function\":{\"type\":\"" + (numClasses > 0 ? "MultiClass" : "RMSE") + "\"}}";
+
+		int paramsOffset = TKeyValue.createTKeyValue(builder, builder.createString("params"), builder.createString(params));
+
+		int modelCoreOffset = TModelCore.createTModelCore(builder,
+			builder.createString("FlabuffersModel_v1"),
+			obliviousTreesOffset,
+			TModelCore.createInfoMapVector(builder, new int[]{paramsOffset}),
+			0
+		);
+
+		TModelCore.finishTModelCoreBuffer(builder, modelCoreOffset);
+
+		byte[] core = builder.sizedByteArray();
+
+		ByteBuffer header = ByteBuffer.allocate(4 + 4)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		header.put(new byte[]{'C', 'B', 'M', '1'});
+		header.putInt(core.length);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream(header.capacity() + core.length);
+		os.write(header.array(), 0, header.capacity());
+		os.write(core, 0, core.length);
+
+		return os.toByteArray();
+	}
+
+	private static final Pattern SYNTHETIC_PATTERN = Pattern.compile("Synthetic-(\\d+)x(\\d+)(?:x(\\d+))?");
+
+	private static final int NUM_FEATURES = 20;
+	private static final int NUM_BORDERS = 32;
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import NCatBoostFbs.TModelCore;
+import com.google.common.io.ByteStreams;
+import org.dmg.pmml.PMML;
+import org.jpmml.model.MetroJAXBUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G"})
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+
+	@Param({"ClassificationIris", "ClassificationVersicolor", "RegressionAuto", "Synthetic-1000x6", "Synthetic-300x6x10"})
+	public String model;
+
+	@Param({"default", "compact", "lookup_table", "binarize"})
+	public String encoding;
+
+	private byte[] cbm = null;
+
+	private File cbmFile = null;
+
+	private TModelCore modelCore = null;
+
+	private Map<String, ?> options = null;
+
+	private PMML pmml = null;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		this.cbm = BenchmarkUtil.loadCbm(this.model);
+		this.cbmFile = BenchmarkUtil.writeCbm(this.cbm);
+
+		this.modelCore = CatBoostUtil.readTModelCore(new ByteArrayInputStream(this.cbm));
+
+		this.options = createOptions(this.encoding);
+
+		this.pmml = CatBoostUtil.encodePMML(this.modelCore, this.options);
+	}
+
+	@Benchmark
+	public TModelCore readTModelCore() throws Exception {
+		return CatBoostUtil.readTModelCore(new ByteArrayInputStream(this.cbm));
+	}
+
+	@Benchmark
+	public TModelCore mapTModelCore() throws Exception {
+		return CatBoostUtil.readTModelCore(this.cbmFile);
+	}
+
+	@Benchmark
+	public PMML encodePMML() throws Exception {
+		return CatBoostUtil.encodePMML(this.modelCore, this.options);
+	}
+
+	@Benchmark
+	public void marshalPMML() throws Exception {
+		OutputStream os = ByteStreams.nullOutputStream();
+
+		MetroJAXBUtil.marshalPMML(this.pmml, os);
+	}
+
+	@Benchmark
+	public void writePMML() throws Exception {
+		OutputStream os = ByteStreams.nullOutputStream();
+
+		CatBoostUtil.writePMML(this.modelCore, this.options, os);
+	}
+
+	static
+	Map<String, ?> createOptions(String encoding){
+
+		switch(encoding){
+			case "default":
+				return Collections.emptyMap();
+			case "compact":
+				return Collections.singletonMap(HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE);
+			case "lookup_table":
+				return Collections.singletonMap(HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.TRUE);
+			case "binarize":
+				return Collections.singletonMap(HasCatBoostOptions.OPTION_BINARIZE, Boolean.TRUE);
+			default:
+				throw new IllegalArgumentException(encoding);
+		}
+	}
+}
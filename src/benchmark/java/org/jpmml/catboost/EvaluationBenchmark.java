@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import NCatBoostFbs.TModelCore;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.PMML;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.ModelEvaluatorBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>
+ * Measures the row throughput of the PMML encodings with the JPMML-Evaluator library.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G"})
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+
+	@Param({"ClassificationIris", "ClassificationVersicolor", "RegressionAuto", "Synthetic-1000x6", "Synthetic-300x6x10"})
+	public String model;
+
+	@Param({"default", "compact", "lookup_table", "binarize"})
+	public String encoding;
+
+	private Evaluator evaluator = null;
+
+	private List<Map<FieldName, FieldValue>> arguments = null;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new ByteArrayInputStream(BenchmarkUtil.loadCbm(this.model)));
+
+		PMML pmml = CatBoostUtil.encodePMML(modelCore, ConversionBenchmark.createOptions(this.encoding));
+
+		Evaluator evaluator = new ModelEvaluatorBuilder(pmml)
+			.build();
+
+		evaluator.verify();
+
+		List<InputField> inputFields = evaluator.getInputFields();
+
+		List<Map<FieldName, FieldValue>> arguments = new ArrayList<>();
+
+		float[][] rows = BenchmarkUtil.createRows(modelCore, NUM_ROWS);
+
+		List<String> featureNames = (new CatBoostScorer(modelCore)).getFeatureNames();
+
+		for(float[] row : rows){
+			Map<FieldName, FieldValue> rowArguments = new LinkedHashMap<>();
+
+			for(InputField inputField : inputFields){
+				FieldName name = inputField.getName();
+
+				int index = featureNames.indexOf(name.getValue());
+
+				rowArguments.put(name, inputField.prepare(row[index]));
+			}
+
+			arguments.add(rowArguments);
+		}
+
+		this.evaluator = evaluator;
+		this.arguments = arguments;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_ROWS)
+	public void evaluate(Blackhole blackhole){
+		Evaluator evaluator = this.evaluator;
+
+		for(Map<FieldName, FieldValue> rowArguments : this.arguments){
+			blackhole.consume(evaluator.evaluate(rowArguments));
+		}
+	}
+
+	static final int NUM_ROWS = 1000;
+}
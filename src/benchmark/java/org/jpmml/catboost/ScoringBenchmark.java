@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import NCatBoostFbs.TModelCore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>
+ * Measures the row throughput of {@link CatBoostScorer}, and of the CatBoost native library as the reference point.
+ * </p>
+ *
+ * <p>
+ * The CatBoost native library is accessed reflectively.
+ * If it is not available on the current platform, then native benchmarks fail in their setup, and the remaining benchmarks carry on.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G"})
+@State(Scope.Benchmark)
+public class ScoringBenchmark {
+
+	@Param({"ClassificationIris", "ClassificationVersicolor", "RegressionAuto", "Synthetic-1000x6", "Synthetic-300x6x10"})
+	public String model;
+
+	private byte[] cbm = null;
+
+	private CatBoostScorer scorer = null;
+
+	private float[][] rows = null;
+
+	private float[][] columns = null;
+
+	private ForkJoinPool pool = null;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		this.cbm = BenchmarkUtil.loadCbm(this.model);
+
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new ByteArrayInputStream(this.cbm));
+
+		CatBoostScorer scorer = new CatBoostScorer(modelCore);
+
+		float[][] rows = BenchmarkUtil.createRows(modelCore, NUM_ROWS);
+		float[][] columns = new float[scorer.getNumFeatures()][NUM_ROWS];
+
+		for(int row = 0; row < NUM_ROWS; row++){
+
+			for(int i = 0; i < columns.length; i++){
+				columns[i][row] = rows[row][i];
+			}
+		}
+
+		this.scorer = scorer;
+		this.rows = rows;
+		this.columns = columns;
+
+		this.pool = new ForkJoinPool();
+	}
+
+	@TearDown
+	public void tearDown(){
+		this.pool.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_ROWS)
+	public void predict(Blackhole blackhole){
+		CatBoostScorer scorer = this.scorer;
+
+		double[] result = new double[scorer.getNumOutputs()];
+
+		for(float[] row : this.rows){
+			scorer.predict(row, result);
+
+			blackhole.consume(result);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_ROWS)
+	public double[][] predictBatch(){
+		CatBoostScorer scorer = this.scorer;
+
+		double[][] result = new double[scorer.getNumOutputs()][NUM_ROWS];
+
+		scorer.predict(this.columns, result, this.pool);
+
+		return result;
+	}
+
+	@State(Scope.Benchmark)
+	public static class NativeModel {
+
+		private Object model = null;
+
+		private Method predictMethod = null;
+
+		private String[][] catFeatures = null;
+
+
+		@Setup
+		public void setUp(ScoringBenchmark benchmark) throws Exception {
+			Class<?> modelClass;
+
+			try {
+				modelClass = Class.forName("ai.catboost.CatBoostModel");
+			} catch(ClassNotFoundException cnfe){
+				throw new IllegalStateException("CatBoost native library is not available", cnfe);
+			}
+
+			Method loadModelMethod = modelClass.getMethod("loadModel", InputStream.class);
+
+			try(InputStream is = new ByteArrayInputStream(benchmark.cbm)){
+				this.model = loadModelMethod.invoke(null, is);
+			}
+
+			this.predictMethod = modelClass.getMethod("predict", float[][].class, String[][].class);
+
+			this.catFeatures = new String[NUM_ROWS][0];
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_ROWS)
+	public Object predictNative(NativeModel nativeModel) throws Exception {
+		return nativeModel.predictMethod.invoke(nativeModel.model, this.rows, nativeModel.catFeatures);
+	}
+
+	static final int NUM_ROWS = 1000;
+}
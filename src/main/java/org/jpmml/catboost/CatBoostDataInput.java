@@ -22,7 +22,11 @@ import java.io.Closeable;
 import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
 
 import com.google.common.io.ByteStreams;
 import com.google.common.io.LittleEndianDataInputStream;
@@ -31,8 +35,32 @@ public class CatBoostDataInput implements Closeable {
 
 	private InputStream is = null;
 
+	private boolean compressed = false;
 
+
+	/**
+	 * <p>
+	 * Gzip-compressed input is detected by its magic number, and decompressed on the fly.
+	 * </p>
+	 */
 	public CatBoostDataInput(InputStream is) throws IOException {
+		// Peek at the magic number without reading ahead, so that the position of the underlying stream stays in sync with the CBM payload
+		PushbackInputStream pushbackIs = new PushbackInputStream(is, 2);
+
+		byte[] magic = new byte[2];
+
+		int count = ByteStreams.read(pushbackIs, magic, 0, magic.length);
+
+		pushbackIs.unread(magic, 0, count);
+
+		is = pushbackIs;
+
+		if(count == magic.length && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b){
+			is = new GZIPInputStream(is, 64 * 1024);
+
+			this.compressed = true;
+		}
+
 		byte[] header = new byte[4];
 
 		ByteStreams.readFully(is, header);
@@ -50,21 +78,34 @@ public class CatBoostDataInput implements Closeable {
 		this.is.close();
 	}
 
-	public int readSize() throws IOException {
+	/**
+	 * @return <code>true</code> if the input is gzip-compressed, in which case payloads cannot be memory-mapped.
+	 */
+	public boolean isCompressed(){
+		return this.compressed;
+	}
+
+	public int readInt() throws IOException {
+		DataInput input = asDataInput();
+
+		return input.readInt();
+	}
+
+	public long readSize() throws IOException {
 		DataInput input = asDataInput();
 
 		int oldVerSize = input.readInt();
 		if(oldVerSize != 0xffffffff){
-			return oldVerSize;
+			return Integer.toUnsignedLong(oldVerSize);
 		}
 
 		long newSize = input.readLong();
 
-		return (int)newSize;
+		return newSize;
 	}
 
 	public ByteBuffer readByteBuffer() throws IOException {
-		int size = readSize();
+		int size = toBufferSize(readSize());
 
 		byte[] bytes = new byte[size];
 
@@ -73,7 +114,31 @@ public class CatBoostDataInput implements Closeable {
 		return ByteBuffer.wrap(bytes);
 	}
 
+	public ByteBuffer mapByteBuffer(FileChannel channel) throws IOException {
+		int size = toBufferSize(readSize());
+
+		long position = channel.position();
+
+		ByteBuffer result = channel.map(FileChannel.MapMode.READ_ONLY, position, size)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		channel.position(position + size);
+
+		return result;
+	}
+
 	private DataInput asDataInput(){
 		return (DataInput)this.is;
 	}
+
+	static
+	private int toBufferSize(long size){
+
+		// FlatBuffers uses 32-bit signed offsets, which cannot address payloads of 2 GB and beyond
+		if(size < 0L || size > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Payload size " + Long.toUnsignedString(size) + " exceeds the maximum supported size " + Integer.MAX_VALUE);
+		}
+
+		return (int)size;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.util.List;
+import java.util.Objects;
+
+import NCatBoostFbs.TCtrValueTable;
+import NCatBoostFbs.TFeatureCombination;
+import NCatBoostFbs.TFloatSplit;
+import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TModelCtrBase;
+import NCatBoostFbs.TOneHotSplit;
+
+/**
+ * <p>
+ * The contents of a CBM file.
+ * The model core is followed by the value tables of CTR features, if any.
+ * </p>
+ */
+public class CatBoostModel {
+
+	private TModelCore modelCore = null;
+
+	private List<TCtrValueTable> ctrValueTables = null;
+
+
+	public CatBoostModel(TModelCore modelCore, List<TCtrValueTable> ctrValueTables){
+		setModelCore(modelCore);
+		setCtrValueTables(ctrValueTables);
+	}
+
+	public TCtrValueTable getCtrValueTable(TModelCtrBase ctrBase){
+		List<TCtrValueTable> ctrValueTables = getCtrValueTables();
+
+		for(TCtrValueTable ctrValueTable : ctrValueTables){
+
+			if(equals(ctrBase, ctrValueTable.ModelCtrBase())){
+				return ctrValueTable;
+			}
+		}
+
+		throw new IllegalArgumentException("CTR value table not found");
+	}
+
+	public TModelCore getModelCore(){
+		return this.modelCore;
+	}
+
+	private void setModelCore(TModelCore modelCore){
+		this.modelCore = Objects.requireNonNull(modelCore);
+	}
+
+	public List<TCtrValueTable> getCtrValueTables(){
+		return this.ctrValueTables;
+	}
+
+	private void setCtrValueTables(List<TCtrValueTable> ctrValueTables){
+		this.ctrValueTables = Objects.requireNonNull(ctrValueTables);
+	}
+
+	static
+	private boolean equals(TModelCtrBase left, TModelCtrBase right){
+
+		if(left.CtrType() != right.CtrType() || left.TargetBorderClassifierIdx() != right.TargetBorderClassifierIdx()){
+			return false;
+		}
+
+		return equals(left.FeatureCombination(), right.FeatureCombination());
+	}
+
+	static
+	private boolean equals(TFeatureCombination left, TFeatureCombination right){
+
+		if(left.CatFeaturesLength() != right.CatFeaturesLength() || left.FloatSplitsLength() != right.FloatSplitsLength() || left.OneHotSplitsLength() != right.OneHotSplitsLength()){
+			return false;
+		}
+
+		for(int i = 0; i < left.CatFeaturesLength(); i++){
+
+			if(left.CatFeatures(i) != right.CatFeatures(i)){
+				return false;
+			}
+		}
+
+		for(int i = 0; i < left.FloatSplitsLength(); i++){
+			TFloatSplit leftFloatSplit = left.FloatSplits(i);
+			TFloatSplit rightFloatSplit = right.FloatSplits(i);
+
+			if(leftFloatSplit.Index() != rightFloatSplit.Index() || Float.compare(leftFloatSplit.Border(), rightFloatSplit.Border()) != 0){
+				return false;
+			}
+		}
+
+		for(int i = 0; i < left.OneHotSplitsLength(); i++){
+			TOneHotSplit leftOneHotSplit = left.OneHotSplits(i);
+			TOneHotSplit rightOneHotSplit = right.OneHotSplits(i);
+
+			if(leftOneHotSplit.Index() != rightOneHotSplit.Index() || leftOneHotSplit.Value() != rightOneHotSplit.Value()){
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
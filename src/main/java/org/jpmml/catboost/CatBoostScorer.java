@@ -0,0 +1,682 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import NCatBoostFbs.TFloatFeature;
+import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TObliviousTrees;
+
+/**
+ * <p>
+ * Scores float feature vectors directly against the oblivious trees of a CatBoost model.
+ * </p>
+ *
+ * <p>
+ * The model data is held in flat primitive arrays.
+ * Single-row scoring methods that take a result array do not allocate, and are safe to call from multiple threads.
+ * </p>
+ *
+ * <p>
+ * Batch scoring methods take column-major data.
+ * Rows are partitioned into blocks, which are scored in parallel in a {@link ForkJoinPool}.
+ * Within a block, every feature column is binarized once against the sorted borders,
+ * and leaf indices are then computed tree by tree over all rows of the block.
+ * </p>
+ */
+public class CatBoostScorer implements Scorer {
+
+	private String lossFunctionType = null;
+
+	private List<String> featureNames = null;
+
+	private int numDimensions = 0;
+
+	private int[] treeSizes = null;
+
+	private int[] treeSplits = null;
+
+	private float[][] featureBorders = null;
+
+	private int[] levelFeatures = null;
+
+	private int[] levelBins = null;
+
+	private float[] levelBorders = null;
+
+	private double[] leafValues = null;
+
+
+	public CatBoostScorer(TModelCore modelCore){
+		this(modelCore, Collections.emptyMap());
+	}
+
+	/**
+	 * @param options Conversion options. The tree selection and leaf value rounding options are applied the same way as in the PMML conversion.
+	 *
+	 * @see HasCatBoostOptions#OPTION_NTREE_END
+	 * @see HasCatBoostOptions#OPTION_PRUNE_TOLERANCE
+	 * @see HasCatBoostOptions#OPTION_LEAF_VALUE_PRECISION
+	 */
+	public CatBoostScorer(TModelCore modelCore, Map<String, ?> options){
+		TObliviousTrees obliviousTrees = modelCore.ObliviousTrees();
+
+		int catFeaturesLength = obliviousTrees.CatFeaturesLength();
+		int floatFeaturesLength = obliviousTrees.FloatFeaturesLength();
+		int oneHotFeaturesLength = obliviousTrees.OneHotFeaturesLength();
+		int ctrFeaturesLength = obliviousTrees.CtrFeaturesLength();
+
+		if(catFeaturesLength != 0 || oneHotFeaturesLength != 0 || ctrFeaturesLength != 0){
+			throw new IllegalArgumentException("The native scorer supports float features only, but the model has " + catFeaturesLength + " categorical feature(s), " + oneHotFeaturesLength + " one-hot feature(s) and " + ctrFeaturesLength + " CTR feature(s). Convert the model to PMML instead");
+		}
+
+		String lossFunctionType = CatBoostUtil.getLossFunctionType(modelCore);
+
+		String[] featureNames = new String[floatFeaturesLength];
+
+		float[][] featureBorders = new float[floatFeaturesLength][];
+
+		for(int i = 0; i < floatFeaturesLength; i++){
+			TFloatFeature floatFeature = obliviousTrees.FloatFeatures(i);
+
+			int index = floatFeature.Index();
+
+			featureNames[index] = floatFeature.FeatureId();
+
+			float[] borders = new float[floatFeature.BordersLength()];
+
+			for(int j = 0; j < borders.length; j++){
+				borders[j] = floatFeature.Borders(j);
+			}
+
+			featureBorders[index] = borders;
+		}
+
+		int numDimensions = obliviousTrees.ApproxDimension();
+
+		Number ntreeEnd = (Number)options.get(HasCatBoostOptions.OPTION_NTREE_END);
+		Number pruneTolerance = (Number)options.get(HasCatBoostOptions.OPTION_PRUNE_TOLERANCE);
+		Number leafValuePrecision = (Number)options.get(HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION);
+
+		int numTrees = obliviousTrees.TreeSizesLength();
+
+		if(ntreeEnd != null){
+
+			if(ntreeEnd.intValue() < 1){
+				throw new IllegalArgumentException("Tree count " + ntreeEnd + " is not positive");
+			}
+
+			numTrees = Math.min(numTrees, ntreeEnd.intValue());
+		}
+
+		int[] allTreeSizes = new int[obliviousTrees.TreeSizesLength()];
+		int[] allTreeSplits = new int[obliviousTrees.TreeSplitsLength()];
+
+		(obliviousTrees.TreeSizesAsByteBuffer()).asIntBuffer().get(allTreeSizes);
+		(obliviousTrees.TreeSplitsAsByteBuffer()).asIntBuffer().get(allTreeSplits);
+
+		double[] allLeafValues = new double[obliviousTrees.LeafValuesLength()];
+
+		(obliviousTrees.LeafValuesAsByteBuffer()).asDoubleBuffer().get(allLeafValues);
+
+		boolean[] prunedTrees = CompressionUtil.selectPrunedTrees(obliviousTrees, pruneTolerance);
+
+		// Keep the same trees and leaf values as the PMML encoding
+		List<Integer> treeSizes = new ArrayList<>();
+		List<Integer> treeSplits = new ArrayList<>();
+		List<Double> leafValues = new ArrayList<>();
+
+		int treeSplitsPtr = 0;
+		int treeLeafValuesPtr = 0;
+
+		for(int tree = 0; tree < numTrees; tree++){
+			int numLevels = allTreeSizes[tree];
+			int numLeafValues = numDimensions * (1 << numLevels);
+
+			if(!prunedTrees[tree]){
+				treeSizes.add(numLevels);
+
+				for(int level = 0; level < numLevels; level++){
+					treeSplits.add(allTreeSplits[treeSplitsPtr + level]);
+				}
+
+				for(int i = 0; i < numLeafValues; i++){
+					leafValues.add(CompressionUtil.roundLeafValue(allLeafValues[treeLeafValuesPtr + i], leafValuePrecision));
+				}
+			}
+
+			treeSplitsPtr += numLevels;
+			treeLeafValuesPtr += numLeafValues;
+		}
+
+		initialize(lossFunctionType, Arrays.asList(featureNames), numDimensions, featureBorders, treeSizes.stream().mapToInt(Integer::intValue).toArray(), treeSplits.stream().mapToInt(Integer::intValue).toArray(), leafValues.stream().mapToDouble(Double::doubleValue).toArray());
+	}
+
+	/**
+	 * @param featureBorders Float feature borders, indexed as in feature names.
+	 * @param treeSplits Binary feature indices. Binary features are numbered consecutively, in the order of float feature borders.
+	 *
+	 * @see CatBoostScorerUtil#readScorer(java.io.File)
+	 */
+	CatBoostScorer(String lossFunctionType, List<String> featureNames, int numDimensions, float[][] featureBorders, int[] treeSizes, int[] treeSplits, double[] leafValues){
+		initialize(lossFunctionType, featureNames, numDimensions, featureBorders, treeSizes, treeSplits, leafValues);
+	}
+
+	private void initialize(String lossFunctionType, List<String> featureNames, int numDimensions, float[][] featureBorders, int[] treeSizes, int[] treeSplits, double[] leafValues){
+
+		switch(lossFunctionType){
+			case "Logloss":
+			case "MultiClass":
+			case "RMSE":
+				break;
+			default:
+				throw new IllegalArgumentException(lossFunctionType);
+		}
+
+		// Binary features are numbered consecutively, in the order of float feature indices
+		List<Integer> splitFeatures = new ArrayList<>();
+		List<Integer> splitBins = new ArrayList<>();
+		List<Float> splitBorders = new ArrayList<>();
+
+		for(int i = 0; i < featureBorders.length; i++){
+			float[] borders = featureBorders[i];
+
+			for(int j = 0; j < borders.length; j++){
+				splitFeatures.add(i);
+				splitBins.add(j);
+				splitBorders.add(borders[j]);
+			}
+		}
+
+		int numLevels = treeSplits.length;
+
+		int[] levelFeatures = new int[numLevels];
+		int[] levelBins = new int[numLevels];
+		float[] levelBorders = new float[numLevels];
+
+		for(int level = 0; level < numLevels; level++){
+			int treeSplit = treeSplits[level];
+
+			levelFeatures[level] = splitFeatures.get(treeSplit);
+			levelBins[level] = splitBins.get(treeSplit);
+			levelBorders[level] = splitBorders.get(treeSplit);
+		}
+
+		setLossFunctionType(lossFunctionType);
+		setFeatureNames(Collections.unmodifiableList(new ArrayList<>(featureNames)));
+		setNumDimensions(numDimensions);
+		setTreeSizes(treeSizes);
+		setTreeSplits(treeSplits);
+		setFeatureBorders(featureBorders);
+		setLevelFeatures(levelFeatures);
+		setLevelBins(levelBins);
+		setLevelBorders(levelBorders);
+		setLeafValues(leafValues);
+	}
+
+	/**
+	 * <p>
+	 * Calculates the raw formula value(s).
+	 * </p>
+	 *
+	 * @param features Float feature values, indexed as in {@link #getFeatureNames()}.
+	 * @param result An array of length {@link #getNumDimensions()}.
+	 */
+	public void predictRaw(float[] features, double[] result){
+		int numDimensions = getNumDimensions();
+		int[] treeSizes = getTreeSizes();
+		int[] levelFeatures = getLevelFeatures();
+		float[] levelBorders = getLevelBorders();
+		double[] leafValues = getLeafValues();
+
+		Arrays.fill(result, 0, numDimensions, 0d);
+
+		int levelPtr = 0;
+		int leafValuesPtr = 0;
+
+		for(int tree = 0; tree < treeSizes.length; tree++){
+			int numLevels = treeSizes[tree];
+
+			int index = 0;
+
+			for(int depth = 0; depth < numLevels; depth++){
+				int level = levelPtr + depth;
+
+				if(features[levelFeatures[level]] > levelBorders[level]){
+					index |= (1 << depth);
+				}
+			}
+
+			int leafPtr = leafValuesPtr + (index * numDimensions);
+
+			for(int dim = 0; dim < numDimensions; dim++){
+				result[dim] += leafValues[leafPtr + dim];
+			}
+
+			levelPtr += numLevels;
+			leafValuesPtr += (numDimensions << numLevels);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Calculates the prediction.
+	 * For classification models, these are class probabilities (LOGIT for binary, SOFTMAX for multi-class).
+	 * </p>
+	 *
+	 * @param features Float feature values, indexed as in {@link #getFeatureNames()}.
+	 * @param result An array of length {@link #getNumOutputs()}.
+	 *
+	 * @see #predictRaw(float[], double[])
+	 */
+	public void predict(float[] features, double[] result){
+		predictRaw(features, result);
+
+		postProcess(result);
+	}
+
+	public double[] predict(float[] features){
+		double[] result = new double[getNumOutputs()];
+
+		predict(features, result);
+
+		return result;
+	}
+
+	/**
+	 * @see #predictRaw(float[][], double[][], ForkJoinPool)
+	 */
+	public void predictRaw(float[][] columns, double[][] result){
+		predictRaw(columns, result, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * <p>
+	 * Calculates the raw formula value(s) for a batch of rows.
+	 * </p>
+	 *
+	 * @param columns Float feature columns, indexed as in {@link #getFeatureNames()}. All columns must have the same length.
+	 * @param result Result columns. An array of length {@link #getNumDimensions()}, whose elements have the same length as feature columns.
+	 */
+	public void predictRaw(float[][] columns, double[][] result, ForkJoinPool pool){
+		predictBatch(columns, result, false, pool);
+	}
+
+	/**
+	 * @see #predict(float[][], double[][], ForkJoinPool)
+	 */
+	public void predict(float[][] columns, double[][] result){
+		predict(columns, result, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * <p>
+	 * Calculates the prediction for a batch of rows.
+	 * </p>
+	 *
+	 * @param columns Float feature columns, indexed as in {@link #getFeatureNames()}. All columns must have the same length.
+	 * @param result Result columns. An array of length {@link #getNumOutputs()}, whose elements have the same length as feature columns.
+	 */
+	public void predict(float[][] columns, double[][] result, ForkJoinPool pool){
+		predictBatch(columns, result, true, pool);
+	}
+
+	/**
+	 * <p>
+	 * Calculates the raw formula value for a batch of rows.
+	 * Applicable to models with one dimension only.
+	 * </p>
+	 *
+	 * @see #predictRaw(float[][], double[][], ForkJoinPool)
+	 */
+	public void predictRaw(float[][] columns, double[] result){
+		predictRaw(columns, new double[][]{result});
+	}
+
+	private void predictBatch(float[][] columns, double[][] result, boolean probabilities, ForkJoinPool pool){
+		int numFeatures = getNumFeatures();
+		int numOutputs = (probabilities ? getNumOutputs() : getNumDimensions());
+
+		if(columns.length != numFeatures || result.length != numOutputs){
+			throw new IllegalArgumentException();
+		}
+
+		int numRows = (numFeatures > 0 ? columns[0].length : result[0].length);
+
+		for(float[] column : columns){
+
+			if(column.length != numRows){
+				throw new IllegalArgumentException();
+			}
+		}
+
+		for(double[] values : result){
+
+			if(values.length != numRows){
+				throw new IllegalArgumentException();
+			}
+		}
+
+		pool.invoke(new BatchTask(columns, result, probabilities, 0, numRows));
+	}
+
+	private void predictBlock(float[][] columns, double[][] result, boolean probabilities, int begin, int end){
+		int numDimensions = getNumDimensions();
+		float[][] featureBorders = getFeatureBorders();
+		int[] treeSizes = getTreeSizes();
+		int[] levelFeatures = getLevelFeatures();
+		int[] levelBins = getLevelBins();
+		double[] leafValues = getLeafValues();
+
+		int numRows = (end - begin);
+
+		int[][] bins = new int[columns.length][];
+
+		for(int feature = 0; feature < columns.length; feature++){
+			float[] column = columns[feature];
+			float[] borders = featureBorders[feature];
+
+			if(borders.length == 0){
+				continue;
+			}
+
+			int[] featureBins = new int[numRows];
+
+			for(int row = 0; row < numRows; row++){
+				featureBins[row] = binarize(column[begin + row], borders);
+			}
+
+			bins[feature] = featureBins;
+		}
+
+		double[] values = new double[numDimensions * numRows];
+
+		int[] indices = new int[numRows];
+
+		int levelPtr = 0;
+		int leafValuesPtr = 0;
+
+		for(int tree = 0; tree < treeSizes.length; tree++){
+			int numLevels = treeSizes[tree];
+
+			Arrays.fill(indices, 0);
+
+			for(int depth = 0; depth < numLevels; depth++){
+				int level = levelPtr + depth;
+
+				int[] featureBins = bins[levelFeatures[level]];
+				int bin = levelBins[level];
+				int depthMask = (1 << depth);
+
+				for(int row = 0; row < numRows; row++){
+
+					if(featureBins[row] > bin){
+						indices[row] |= depthMask;
+					}
+				}
+			}
+
+			for(int row = 0; row < numRows; row++){
+				int leafPtr = leafValuesPtr + (indices[row] * numDimensions);
+
+				for(int dim = 0; dim < numDimensions; dim++){
+					values[(dim * numRows) + row] += leafValues[leafPtr + dim];
+				}
+			}
+
+			levelPtr += numLevels;
+			leafValuesPtr += (numDimensions << numLevels);
+		}
+
+		if(probabilities){
+			double[] rowValues = new double[result.length];
+
+			for(int row = 0; row < numRows; row++){
+
+				for(int dim = 0; dim < numDimensions; dim++){
+					rowValues[dim] = values[(dim * numRows) + row];
+				}
+
+				postProcess(rowValues);
+
+				for(int i = 0; i < rowValues.length; i++){
+					result[i][begin + row] = rowValues[i];
+				}
+			}
+		} else
+
+		{
+			for(int dim = 0; dim < numDimensions; dim++){
+				System.arraycopy(values, dim * numRows, result[dim], begin, numRows);
+			}
+		}
+	}
+
+	void postProcess(double[] result){
+		String lossFunctionType = getLossFunctionType();
+
+		switch(lossFunctionType){
+			case "Logloss":
+				{
+					double probability = 1d / (1d + Math.exp(-result[0]));
+
+					result[0] = (1d - probability);
+					result[1] = probability;
+				}
+				break;
+			case "MultiClass":
+				{
+					int numDimensions = getNumDimensions();
+
+					double max = result[0];
+
+					for(int dim = 1; dim < numDimensions; dim++){
+						max = Math.max(max, result[dim]);
+					}
+
+					double sum = 0d;
+
+					for(int dim = 0; dim < numDimensions; dim++){
+						result[dim] = Math.exp(result[dim] - max);
+
+						sum += result[dim];
+					}
+
+					for(int dim = 0; dim < numDimensions; dim++){
+						result[dim] /= sum;
+					}
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	// Tasks are never serialized
+	@SuppressWarnings("serial")
+	private class BatchTask extends RecursiveAction {
+
+		private float[][] columns = null;
+
+		private double[][] result = null;
+
+		private boolean probabilities = false;
+
+		private int begin = 0;
+
+		private int end = 0;
+
+
+		private BatchTask(float[][] columns, double[][] result, boolean probabilities, int begin, int end){
+			this.columns = columns;
+			this.result = result;
+			this.probabilities = probabilities;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute(){
+			int numRows = (this.end - this.begin);
+
+			if(numRows <= CatBoostScorer.BLOCK_SIZE){
+				predictBlock(this.columns, this.result, this.probabilities, this.begin, this.end);
+
+				return;
+			}
+
+			// Split at a block boundary
+			int middle = this.begin + (((numRows / CatBoostScorer.BLOCK_SIZE) + 1) / 2) * CatBoostScorer.BLOCK_SIZE;
+
+			invokeAll(new BatchTask(this.columns, this.result, this.probabilities, this.begin, middle), new BatchTask(this.columns, this.result, this.probabilities, middle, this.end));
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of borders that are less than the value.
+	 * A NaN value is not greater than any border, and maps to the first bin.
+	 * </p>
+	 */
+	static
+	int binarize(float value, float[] borders){
+		int low = 0;
+		int high = borders.length;
+
+		while(low < high){
+			int middle = (low + high) >>> 1;
+
+			if(value > borders[middle]){
+				low = middle + 1;
+			} else
+
+			{
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	public int getNumFeatures(){
+		List<String> featureNames = getFeatureNames();
+
+		return featureNames.size();
+	}
+
+	public int getNumOutputs(){
+		String lossFunctionType = getLossFunctionType();
+
+		switch(lossFunctionType){
+			case "Logloss":
+				return 2;
+			default:
+				return getNumDimensions();
+		}
+	}
+
+	public String getLossFunctionType(){
+		return this.lossFunctionType;
+	}
+
+	private void setLossFunctionType(String lossFunctionType){
+		this.lossFunctionType = lossFunctionType;
+	}
+
+	public List<String> getFeatureNames(){
+		return this.featureNames;
+	}
+
+	private void setFeatureNames(List<String> featureNames){
+		this.featureNames = featureNames;
+	}
+
+	public int getNumDimensions(){
+		return this.numDimensions;
+	}
+
+	private void setNumDimensions(int numDimensions){
+		this.numDimensions = numDimensions;
+	}
+
+	int[] getTreeSizes(){
+		return this.treeSizes;
+	}
+
+	private void setTreeSizes(int[] treeSizes){
+		this.treeSizes = treeSizes;
+	}
+
+	int[] getTreeSplits(){
+		return this.treeSplits;
+	}
+
+	private void setTreeSplits(int[] treeSplits){
+		this.treeSplits = treeSplits;
+	}
+
+	float[][] getFeatureBorders(){
+		return this.featureBorders;
+	}
+
+	private void setFeatureBorders(float[][] featureBorders){
+		this.featureBorders = featureBorders;
+	}
+
+	int[] getLevelFeatures(){
+		return this.levelFeatures;
+	}
+
+	private void setLevelFeatures(int[] levelFeatures){
+		this.levelFeatures = levelFeatures;
+	}
+
+	int[] getLevelBins(){
+		return this.levelBins;
+	}
+
+	private void setLevelBins(int[] levelBins){
+		this.levelBins = levelBins;
+	}
+
+	float[] getLevelBorders(){
+		return this.levelBorders;
+	}
+
+	private void setLevelBorders(float[] levelBorders){
+		this.levelBorders = levelBorders;
+	}
+
+	double[] getLeafValues(){
+		return this.leafValues;
+	}
+
+	private void setLeafValues(double[] leafValues){
+		this.leafValues = leafValues;
+	}
+
+	private static final int BLOCK_SIZE = 1024;
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.LittleEndianDataOutputStream;
+
+/**
+ * <p>
+ * Reads and writes precompiled scorer files.
+ * </p>
+ *
+ * <p>
+ * A scorer file holds the oblivious tree data of a model in a flat little-endian binary layout:
+ * the loss function type (which determines the post-processing of raw formula values), float feature names and borders,
+ * tree sizes, tree splits (as binary feature indices) and leaf values.
+ * Loading it does not involve any XML parsing or object graph construction.
+ * </p>
+ *
+ * @see CatBoostScorer
+ */
+public class CatBoostScorerUtil {
+
+	private CatBoostScorerUtil(){
+	}
+
+	static
+	public void writeScorer(CatBoostScorer scorer, OutputStream os) throws IOException {
+		LittleEndianDataOutputStream output = new LittleEndianDataOutputStream(new BufferedOutputStream(os, 64 * 1024));
+
+		output.write(CatBoostScorerUtil.MAGIC);
+		output.writeInt(CatBoostScorerUtil.VERSION);
+
+		writeString(scorer.getLossFunctionType(), output);
+
+		output.writeInt(scorer.getNumDimensions());
+
+		List<String> featureNames = scorer.getFeatureNames();
+		float[][] featureBorders = scorer.getFeatureBorders();
+
+		output.writeInt(featureNames.size());
+
+		for(int i = 0; i < featureNames.size(); i++){
+			float[] borders = featureBorders[i];
+
+			writeString(featureNames.get(i), output);
+
+			output.writeInt(borders.length);
+
+			for(float border : borders){
+				output.writeFloat(border);
+			}
+		}
+
+		int[] treeSizes = scorer.getTreeSizes();
+		int[] treeSplits = scorer.getTreeSplits();
+		double[] leafValues = scorer.getLeafValues();
+
+		output.writeInt(treeSizes.length);
+
+		for(int treeSize : treeSizes){
+			output.writeInt(treeSize);
+		}
+
+		output.writeInt(treeSplits.length);
+
+		for(int treeSplit : treeSplits){
+			output.writeInt(treeSplit);
+		}
+
+		output.writeInt(leafValues.length);
+
+		for(double leafValue : leafValues){
+			output.writeDouble(leafValue);
+		}
+
+		output.flush();
+	}
+
+	static
+	public CatBoostScorer readScorer(InputStream is) throws IOException {
+		byte[] bytes = ByteStreams.toByteArray(is);
+
+		return readScorer(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * <p>
+	 * Memory-maps a scorer file, and copies its arrays in bulk.
+	 * </p>
+	 */
+	static
+	public CatBoostScorer readScorer(File file) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			long size = channel.size();
+
+			if(size > Integer.MAX_VALUE){
+				throw new IllegalArgumentException("Scorer file size " + size + " exceeds the maximum supported size " + Integer.MAX_VALUE);
+			}
+
+			ByteBuffer byteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			return readScorer(byteBuffer);
+		}
+	}
+
+	static
+	private CatBoostScorer readScorer(ByteBuffer byteBuffer){
+		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		byte[] magic = new byte[CatBoostScorerUtil.MAGIC.length];
+
+		byteBuffer.get(magic);
+
+		String magicString = new String(magic, StandardCharsets.US_ASCII);
+		if(!(new String(CatBoostScorerUtil.MAGIC, StandardCharsets.US_ASCII)).equals(magicString)){
+			throw new IllegalArgumentException(magicString);
+		}
+
+		int version = byteBuffer.getInt();
+		if(version != CatBoostScorerUtil.VERSION){
+			throw new IllegalArgumentException("Scorer file version " + version + " is not supported");
+		}
+
+		String lossFunctionType = readString(byteBuffer);
+
+		int numDimensions = byteBuffer.getInt();
+
+		int numFeatures = byteBuffer.getInt();
+
+		List<String> featureNames = new ArrayList<>(numFeatures);
+		float[][] featureBorders = new float[numFeatures][];
+
+		for(int i = 0; i < numFeatures; i++){
+			featureNames.add(readString(byteBuffer));
+
+			float[] borders = new float[byteBuffer.getInt()];
+
+			(byteBuffer.asFloatBuffer()).get(borders);
+
+			skip(byteBuffer, borders.length * 4);
+
+			featureBorders[i] = borders;
+		}
+
+		int[] treeSizes = new int[byteBuffer.getInt()];
+
+		(byteBuffer.asIntBuffer()).get(treeSizes);
+
+		skip(byteBuffer, treeSizes.length * 4);
+
+		int[] treeSplits = new int[byteBuffer.getInt()];
+
+		(byteBuffer.asIntBuffer()).get(treeSplits);
+
+		skip(byteBuffer, treeSplits.length * 4);
+
+		double[] leafValues = new double[byteBuffer.getInt()];
+
+		(byteBuffer.asDoubleBuffer()).get(leafValues);
+
+		skip(byteBuffer, leafValues.length * 8);
+
+		return new CatBoostScorer(lossFunctionType, featureNames, numDimensions, featureBorders, treeSizes, treeSplits, leafValues);
+	}
+
+	static
+	private void writeString(String string, LittleEndianDataOutputStream output) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	static
+	private String readString(ByteBuffer byteBuffer){
+		byte[] bytes = new byte[byteBuffer.getInt()];
+
+		byteBuffer.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static
+	private void skip(ByteBuffer byteBuffer, int length){
+		// Java 9+ overrides Buffer#position(int) in ByteBuffer with a covariant return type, which would not link on Java 8
+		((Buffer)byteBuffer).position(byteBuffer.position() + length);
+	}
+
+	private static final byte[] MAGIC = {'C', 'B', 'S', 'C'};
+
+	private static final int VERSION = 1;
+}
@@ -18,50 +18,108 @@
  */
 package org.jpmml.catboost;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import NCatBoostFbs.ECtrType;
+import NCatBoostFbs.TCatFeature;
+import NCatBoostFbs.TCtrFeature;
+import NCatBoostFbs.TCtrValueTable;
+import NCatBoostFbs.TFeatureCombination;
 import NCatBoostFbs.TFloatFeature;
+import NCatBoostFbs.TFloatSplit;
 import NCatBoostFbs.TKeyValue;
 import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TModelCtr;
+import NCatBoostFbs.TModelCtrBase;
 import NCatBoostFbs.TObliviousTrees;
+import NCatBoostFbs.TOneHotFeature;
+import NCatBoostFbs.TOneHotSplit;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Iterables;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.Booleans;
+import com.sun.xml.bind.v2.runtime.JAXBContextImpl;
+import com.sun.xml.bind.v2.runtime.MarshallerImpl;
+import org.dmg.pmml.Constant;
 import org.dmg.pmml.DataField;
 import org.dmg.pmml.DataType;
+import org.dmg.pmml.DerivedField;
+import org.dmg.pmml.Discretize;
+import org.dmg.pmml.DiscretizeBin;
+import org.dmg.pmml.Expression;
+import org.dmg.pmml.FieldColumnPair;
 import org.dmg.pmml.FieldName;
+import org.dmg.pmml.FieldRef;
+import org.dmg.pmml.Interval;
+import org.dmg.pmml.MapValues;
 import org.dmg.pmml.MiningFunction;
 import org.dmg.pmml.MiningSchema;
+import org.dmg.pmml.Model;
 import org.dmg.pmml.OpType;
+import org.dmg.pmml.Output;
+import org.dmg.pmml.OutputField;
 import org.dmg.pmml.PMML;
+import org.dmg.pmml.PMMLObject;
 import org.dmg.pmml.Predicate;
+import org.dmg.pmml.ResultFeature;
 import org.dmg.pmml.SimplePredicate;
 import org.dmg.pmml.True;
+import org.dmg.pmml.Visitor;
+import org.dmg.pmml.VisitorAction;
 import org.dmg.pmml.mining.MiningModel;
 import org.dmg.pmml.mining.Segmentation;
 import org.dmg.pmml.regression.RegressionModel;
+import org.dmg.pmml.regression.RegressionTable;
 import org.dmg.pmml.tree.BranchNode;
 import org.dmg.pmml.tree.CountingLeafNode;
+import org.dmg.pmml.tree.LeafNode;
 import org.dmg.pmml.tree.Node;
 import org.dmg.pmml.tree.TreeModel;
 import org.jpmml.converter.CategoricalLabel;
+import org.jpmml.converter.ContinuousFeature;
 import org.jpmml.converter.ContinuousLabel;
+import org.jpmml.converter.Feature;
 import org.jpmml.converter.Label;
 import org.jpmml.converter.LabelUtil;
 import org.jpmml.converter.ModelUtil;
+import org.jpmml.converter.PMMLUtil;
 import org.jpmml.converter.Schema;
 import org.jpmml.converter.mining.MiningModelUtil;
+import org.jpmml.converter.regression.RegressionModelUtil;
+import org.jpmml.model.JAXBUtil;
+import org.jpmml.model.PrettyUTF8XmlOutput;
+import org.jpmml.model.visitors.AbstractVisitor;
 
 public class CatBoostUtil {
 
@@ -81,81 +139,834 @@ public class CatBoostUtil {
 		}
 	}
 
+	/**
+	 * <p>
+	 * Memory-maps the FlatBuffers payload of a CBM file.
+	 * The returned model core stays valid after the file has been closed.
+	 * </p>
+	 *
+	 * <p>
+	 * The payload of a gzip-compressed CBM file is decompressed into the heap instead.
+	 * </p>
+	 */
+	static
+	public TModelCore readTModelCore(File file) throws IOException {
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			CatBoostDataInput input = new CatBoostDataInput(Channels.newInputStream(channel));
+
+			ByteBuffer byteBuffer = (input.isCompressed() ? input.readByteBuffer() : input.mapByteBuffer(channel));
+
+			return TModelCore.getRootAsTModelCore(byteBuffer);
+		}
+	}
+
+	static
+	public CatBoostModel readCatBoostModel(InputStream is) throws IOException {
+		return readCatBoostModel(is, new ConversionMetrics());
+	}
+
+	static
+	public CatBoostModel readCatBoostModel(InputStream is, ConversionMetrics metrics) throws IOException {
+		CatBoostDataInput input = new CatBoostDataInput(is);
+
+		ConversionMetrics.Phase phase = metrics.startPhase(ConversionMetrics.PHASE_READ);
+
+		try {
+			TModelCore modelCore = TModelCore.getRootAsTModelCore(input.readByteBuffer());
+
+			List<TCtrValueTable> ctrValueTables = readCtrValueTables(modelCore, input, () -> input.readByteBuffer());
+
+			return new CatBoostModel(modelCore, ctrValueTables);
+		} finally {
+			phase.end();
+
+			input.close();
+		}
+	}
+
+	/**
+	 * @see #readTModelCore(File)
+	 */
+	static
+	public CatBoostModel readCatBoostModel(File file) throws IOException {
+		return readCatBoostModel(file, new ConversionMetrics());
+	}
+
+	/**
+	 * @see #readTModelCore(File)
+	 */
+	static
+	public CatBoostModel readCatBoostModel(File file, ConversionMetrics metrics) throws IOException {
+		ConversionMetrics.Phase phase = metrics.startPhase(ConversionMetrics.PHASE_READ);
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			CatBoostDataInput input = new CatBoostDataInput(Channels.newInputStream(channel));
+
+			ByteBufferReader reader;
+
+			if(input.isCompressed()){
+				reader = input::readByteBuffer;
+			} else
+
+			{
+				reader = () -> input.mapByteBuffer(channel);
+			}
+
+			TModelCore modelCore = TModelCore.getRootAsTModelCore(reader.read());
+
+			List<TCtrValueTable> ctrValueTables = readCtrValueTables(modelCore, input, reader);
+
+			return new CatBoostModel(modelCore, ctrValueTables);
+		} finally {
+			phase.end();
+		}
+	}
+
+	static
+	private List<TCtrValueTable> readCtrValueTables(TModelCore modelCore, CatBoostDataInput input, ByteBufferReader reader) throws IOException {
+		List<TCtrValueTable> result = new ArrayList<>();
+
+		for(int i = 0; i < modelCore.ModelPartIdsLength(); i++){
+			String modelPartId = modelCore.ModelPartIds(i);
+
+			switch(modelPartId){
+				case "static_provider_v1":
+					{
+						int count = input.readInt();
+
+						for(int j = 0; j < count; j++){
+							result.add(TCtrValueTable.getRootAsTCtrValueTable(reader.read()));
+						}
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Model part " + modelPartId + " is not supported");
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @see HasCatBoostOptions#OPTION_NTREE_END
+	 * @see HasCatBoostOptions#OPTION_PRUNE_TOLERANCE
+	 * @see HasCatBoostOptions#OPTION_LEAF_VALUE_PRECISION
+	 */
+	static
+	public CompressionReport reportCompression(TModelCore modelCore, Map<String, ?> options){
+		Number ntreeEnd = (Number)options.get(HasCatBoostOptions.OPTION_NTREE_END);
+		Number pruneTolerance = (Number)options.get(HasCatBoostOptions.OPTION_PRUNE_TOLERANCE);
+		Number leafValuePrecision = (Number)options.get(HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION);
+
+		if(ntreeEnd != null && ntreeEnd.intValue() < 1){
+			throw new IllegalArgumentException("Tree count " + ntreeEnd + " is not positive");
+		}
+
+		return CompressionUtil.createReport(modelCore.ObliviousTrees(), ntreeEnd, pruneTolerance, leafValuePrecision);
+	}
+
+	/**
+	 * <p>
+	 * CTR value tables are not part of the model core, so CTR feature lookups are not accounted for.
+	 * </p>
+	 *
+	 * @see #estimateConversion(CatBoostModel, Map)
+	 */
+	static
+	public ConversionEstimate estimateConversion(TModelCore modelCore, Map<String, ?> options){
+		return estimateConversion(new CatBoostModel(modelCore, Collections.emptyList()), options);
+	}
+
+	/**
+	 * @see HasCatBoostOptions#OPTION_MEMORY_BUDGET
+	 */
+	static
+	public ConversionEstimate estimateConversion(CatBoostModel catBoostModel, Map<String, ?> options){
+		return ConversionEstimate.create(catBoostModel, options);
+	}
+
 	static
 	public PMML encodePMML(TModelCore modelCore) throws Exception {
+		return encodePMML(modelCore, Collections.emptyMap());
+	}
+
+	static
+	public PMML encodePMML(TModelCore modelCore, Map<String, ?> options) throws Exception {
+		return encodePMML(new CatBoostModel(modelCore, Collections.emptyList()), options);
+	}
+
+	static
+	public PMML encodePMML(CatBoostModel catBoostModel) throws Exception {
+		return encodePMML(catBoostModel, Collections.emptyMap());
+	}
+
+	static
+	public PMML encodePMML(CatBoostModel catBoostModel, Map<String, ?> options) throws Exception {
+		return encodePMML(catBoostModel, options, new ConversionMetrics(), false);
+	}
+
+	static
+	public PMML encodePMML(CatBoostModel catBoostModel, Map<String, ?> options, ConversionMetrics metrics) throws Exception {
+		return encodePMML(catBoostModel, options, metrics, true);
+	}
+
+	/**
+	 * @param countObjects <code>true</code> if the PMML class model objects should be counted (requires a full traversal of the PMML document), <code>false</code> otherwise.
+	 */
+	static
+	private PMML encodePMML(CatBoostModel catBoostModel, Map<String, ?> options, ConversionMetrics metrics, boolean countObjects) throws Exception {
+		options = checkMemoryBudget(catBoostModel, options, false);
+
 		CatBoostEncoder encoder = new CatBoostEncoder();
 
+		Map<TreeModel, Supplier<Node>> deferredNodes = new LinkedHashMap<>();
+
+		Model model = encodeModel(catBoostModel, options, deferredNodes, encoder, metrics);
+
+		ExecutorService executor = createExecutor(options);
+
+		PMML pmml;
+
+		ConversionMetrics.Phase phase = metrics.startPhase(ConversionMetrics.PHASE_ENCODE_TREES);
+
+		try {
+			if(executor != null){
+				List<Callable<Node>> tasks = (deferredNodes.values()).stream()
+					.map(nodeSupplier -> (Callable<Node>)nodeSupplier::get)
+					.collect(Collectors.toList());
+
+				List<Future<Node>> futureNodes = executor.invokeAll(tasks);
+
+				Iterator<TreeModel> treeModelIt = (deferredNodes.keySet()).iterator();
+
+				for(Future<Node> futureNode : futureNodes){
+					TreeModel treeModel = treeModelIt.next();
+
+					treeModel.setNode(futureNode.get());
+				}
+			} else
+
+			{
+				for(Map.Entry<TreeModel, Supplier<Node>> entry : deferredNodes.entrySet()){
+					TreeModel treeModel = entry.getKey();
+					Supplier<Node> nodeSupplier = entry.getValue();
+
+					checkInterrupted();
+
+					treeModel.setNode(nodeSupplier.get());
+				}
+			}
+
+			pmml = encoder.encodePMML(model);
+		} finally {
+			phase.end();
+
+			if(executor != null){
+				executor.shutdownNow();
+			}
+		}
+
+		if(countObjects){
+			Visitor visitor = new AbstractVisitor(){
+
+				@Override
+				public VisitorAction visit(PMMLObject object){
+					metrics.count(object);
+
+					return super.visit(object);
+				}
+			};
+			visitor.applyTo(pmml);
+		}
+
+		metrics.finish();
+
+		return pmml;
+	}
+
+	/**
+	 * <p>
+	 * Encodes and marshals the PMML document in one go.
+	 * Tree models are kept as stubs, and their full node structure is generated one tree at a time while it is being written out.
+	 * </p>
+	 */
+	static
+	public void writePMML(TModelCore modelCore, Map<String, ?> options, OutputStream os) throws Exception {
+		writePMML(new CatBoostModel(modelCore, Collections.emptyList()), options, os);
+	}
+
+	/**
+	 * @see #writePMML(TModelCore, Map, OutputStream)
+	 */
+	static
+	public void writePMML(CatBoostModel catBoostModel, Map<String, ?> options, OutputStream os) throws Exception {
+		writePMML(catBoostModel, options, os, new ConversionMetrics());
+	}
+
+	/**
+	 * <p>
+	 * The node structures of tree models are generated during marshalling, so their generation time is attributed to the marshalling phase.
+	 * </p>
+	 *
+	 * @see #writePMML(TModelCore, Map, OutputStream)
+	 */
+	static
+	public void writePMML(CatBoostModel catBoostModel, Map<String, ?> options, OutputStream os, ConversionMetrics metrics) throws Exception {
+		options = checkMemoryBudget(catBoostModel, options, true);
+
+		CatBoostEncoder encoder = new CatBoostEncoder();
+
+		Map<TreeModel, Supplier<Node>> deferredNodes = new LinkedHashMap<>();
+
+		Model model = encodeModel(catBoostModel, options, deferredNodes, encoder, metrics);
+
+		PMML pmml;
+
+		ConversionMetrics.Phase encodePhase = metrics.startPhase(ConversionMetrics.PHASE_ENCODE_TREES);
+
+		try {
+			pmml = encoder.encodePMML(model);
+		} finally {
+			encodePhase.end();
+		}
+
+		CountingOutputStream countingOs = new CountingOutputStream(os);
+
+		ExecutorService executor = createExecutor(options);
+
+		ConversionMetrics.Phase marshalPhase = metrics.startPhase(ConversionMetrics.PHASE_MARSHAL);
+
+		try {
+			TreeModelListener listener;
+
+			if(executor != null){
+				Number parallelism = (Number)options.get(HasCatBoostOptions.OPTION_PARALLELISM);
+
+				listener = new TreeModelListener(deferredNodes, executor, 2 * parallelism.intValue(), metrics);
+			} else
+
+			{
+				listener = new TreeModelListener(deferredNodes, metrics);
+			}
+
+			JAXBContextImpl context = (JAXBContextImpl)JAXBUtil.getContext();
+
+			MarshallerImpl marshaller = context.createMarshaller();
+			marshaller.setListener(listener);
+
+			marshaller.marshal(pmml, new PrettyUTF8XmlOutput(countingOs, context.getUTF8NameTable()));
+		} finally {
+			marshalPhase.end();
+
+			if(executor != null){
+				executor.shutdownNow();
+			}
+		}
+
+		metrics.setOutputBytes(countingOs.getCount());
+
+		metrics.finish();
+	}
+
+	/**
+	 * <p>
+	 * Writes the PMML document on the specified executor.
+	 * </p>
+	 *
+	 * <p>
+	 * Cancelling the returned future with interruption stops the conversion at the next tree boundary.
+	 * The output stream is left in an unspecified state, and is not closed.
+	 * Futures that are derived from the returned future do not propagate cancellation back to it.
+	 * </p>
+	 *
+	 * @see #writePMML(CatBoostModel, Map, OutputStream, ConversionMetrics)
+	 */
+	static
+	public CompletableFuture<ConversionMetrics> writePMMLAsync(CatBoostModel catBoostModel, Map<String, ?> options, OutputStream os, Executor executor){
+		ConversionFuture<ConversionMetrics> result = new ConversionFuture<>();
+
+		Callable<ConversionMetrics> callable = () -> {
+			ConversionMetrics metrics = new ConversionMetrics();
+
+			writePMML(catBoostModel, options, os, metrics);
+
+			return metrics;
+		};
+
+		try {
+			executor.execute(() -> result.run(callable));
+		} catch(RuntimeException re){
+			result.completeExceptionally(re);
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * The streaming fallback does not make the conversion result any smaller.
+	 * It trades lookup tables, which are held on heap in full, for tree models, whose node structures are generated (and discarded) one tree at a time while writing.
+	 * </p>
+	 *
+	 * @see HasCatBoostOptions#OPTION_MEMORY_BUDGET
+	 * @see HasCatBoostOptions#OPTION_MEMORY_BUDGET_STREAMING_FALLBACK
+	 */
+	static
+	private Map<String, ?> checkMemoryBudget(CatBoostModel catBoostModel, Map<String, ?> options, boolean streaming){
+		Number memoryBudget = (Number)options.get(HasCatBoostOptions.OPTION_MEMORY_BUDGET);
+		Boolean memoryBudgetStreamingFallback = (Boolean)options.get(HasCatBoostOptions.OPTION_MEMORY_BUDGET_STREAMING_FALLBACK);
+
+		if(memoryBudget == null){
+			return options;
+		}
+
+		ConversionEstimate estimate = estimateConversion(catBoostModel, options);
+
+		long heapBytes = (streaming ? estimate.getHeapBytes() : estimate.getDocumentHeapBytes());
+		if(heapBytes <= memoryBudget.longValue()){
+			return options;
+		} // End if
+
+		if(memoryBudgetStreamingFallback != null && memoryBudgetStreamingFallback){
+			Map<String, Object> fallbackOptions = new LinkedHashMap<>(options);
+
+			// Per-dimension tree models, whose node structures can be generated one tree at a time
+			fallbackOptions.put(HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.FALSE);
+			fallbackOptions.put(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.FALSE);
+
+			ConversionEstimate fallbackEstimate = estimateConversion(catBoostModel, fallbackOptions);
+
+			long fallbackHeapBytes = (streaming ? fallbackEstimate.getHeapBytes() : fallbackEstimate.getDocumentHeapBytes());
+			if(fallbackHeapBytes <= memoryBudget.longValue()){
+				return fallbackOptions;
+			}
+		}
+
+		throw new IllegalArgumentException("Estimated peak heap usage " + heapBytes + " bytes exceeds the memory budget " + memoryBudget + " bytes");
+	}
+
+	/**
+	 * @throws CancellationException If the current thread has been interrupted.
+	 */
+	static
+	void checkInterrupted(){
+
+		if(Thread.currentThread().isInterrupted()){
+			throw new CancellationException("Conversion was interrupted");
+		}
+	}
+
+	static
+	private Model encodeModel(CatBoostModel catBoostModel, Map<String, ?> options, Map<TreeModel, Supplier<Node>> deferredNodes, CatBoostEncoder encoder, ConversionMetrics metrics){
+		TModelCore modelCore = catBoostModel.getModelCore();
+
 		TObliviousTrees obliviousTrees = modelCore.ObliviousTrees();
 
+		String lossFunctionType;
+
+		ConversionMetrics.Phase parseMapPhase = metrics.startPhase(ConversionMetrics.PHASE_PARSE_MAP);
+
+		try {
+			lossFunctionType = getLossFunctionType(modelCore);
+		} finally {
+			parseMapPhase.end();
+		}
+
+		List<Split> splits;
+
+		ConversionMetrics.Phase encodeFeaturesPhase = metrics.startPhase(ConversionMetrics.PHASE_ENCODE_FEATURES);
+
+		try {
+			splits = encodeFeatures(catBoostModel, options, encoder);
+		} finally {
+			encodeFeaturesPhase.end();
+		}
+
+		ConversionMetrics.Phase encodeTreesPhase = metrics.startPhase(ConversionMetrics.PHASE_ENCODE_TREES);
+
+		try {
+			return encodeModel(obliviousTrees, lossFunctionType, splits, options, deferredNodes, encoder, metrics);
+		} finally {
+			encodeTreesPhase.end();
+		}
+	}
+
+	static
+	private ExecutorService createExecutor(Map<String, ?> options){
+		Number parallelism = (Number)options.get(HasCatBoostOptions.OPTION_PARALLELISM);
+
+		if(parallelism == null || parallelism.intValue() <= 1){
+			return null;
+		}
+
+		return new ForkJoinPool(parallelism.intValue());
+	}
+
+	static
+	String getLossFunctionType(TModelCore modelCore){
 		TKeyValue params = modelCore.InfoMapByKey("params");
 
-		Map<String, ?> paramsMap = parseMap(params.Value());
+		Map<String, ?> paramsMap;
+
+		try {
+			paramsMap = parseMap(params.Value());
+		} catch(IOException ioe){
+			throw new IllegalArgumentException(ioe);
+		}
+
+		Map<String, ?> lossFunction = (Map)paramsMap.get("loss_function");
+
+		return (String)lossFunction.get("type");
+	}
+
+	static
+	private List<Split> encodeFeatures(CatBoostModel catBoostModel, Map<String, ?> options, CatBoostEncoder encoder){
+		Boolean binarize = (Boolean)options.get(HasCatBoostOptions.OPTION_BINARIZE);
+		Map<String, ? extends Collection<String>> catFeatureValues = (Map)options.get(HasCatBoostOptions.OPTION_CAT_FEATURE_VALUES);
+
+		if(binarize == null){
+			binarize = Boolean.FALSE;
+		} // End if
+
+		if(catFeatureValues == null){
+			catFeatureValues = Collections.emptyMap();
+		}
+
+		TObliviousTrees obliviousTrees = (catBoostModel.getModelCore()).ObliviousTrees();
+
+		int catFeaturesLength = obliviousTrees.CatFeaturesLength();
+		int floatFeaturesLength = obliviousTrees.FloatFeaturesLength();
+		int oneHotFeaturesLength = obliviousTrees.OneHotFeaturesLength();
+		int ctrFeaturesLength = obliviousTrees.CtrFeaturesLength();
+
+		// Binary features are numbered consecutively: float feature borders, then one-hot feature values, then CTR feature borders
+		List<Split> splits = new ArrayList<>();
+
+		Map<Integer, FieldName> floatFeatureNames = new HashMap<>();
+
+		for(int i = 0; i < floatFeaturesLength; i++){
+			TFloatFeature floatFeature = obliviousTrees.FloatFeatures(i);
+
+			FieldName name = FieldName.create(floatFeature.FeatureId());
+
+			DataField dataField = encoder.createDataField(name, OpType.CONTINUOUS, DataType.FLOAT);
+
+			floatFeatureNames.put(floatFeature.Index(), name);
+
+			int borderLength = floatFeature.BordersLength();
+
+			// Map the value to a bin index once, and let all trees compare bin indices
+			if(binarize && borderLength > 0){
+				Discretize discretize = new Discretize(name)
+					.setDataType(DataType.INTEGER);
+
+				for(int j = 0; j <= borderLength; j++){
+					Interval interval = new Interval(Interval.Closure.OPEN_CLOSED);
+
+					if(j > 0){
+						interval.setLeftMargin((double)floatFeature.Borders(j - 1));
+					} // End if
+
+					if(j < borderLength){
+						interval.setRightMargin((double)floatFeature.Borders(j));
+					}
+
+					discretize.addDiscretizeBins(new DiscretizeBin(j, interval));
+				}
+
+				DerivedField derivedField = encoder.createDerivedField(FieldName.create("bin(" + name.getValue() + ")"), OpType.CONTINUOUS, DataType.INTEGER, discretize);
+
+				for(int j = 0; j < borderLength; j++){
+					splits.add(new BinSplit(derivedField.getName(), j));
+				}
+			} else
+
+			{
+				for(int j = 0; j < borderLength; j++){
+					float border = floatFeature.Borders(j);
+
+					splits.add(new FloatSplit(name, border));
+				}
+			}
+		}
+
+		Map<Integer, CatFeature> catFeatures = new HashMap<>();
+
+		for(int i = 0; i < catFeaturesLength; i++){
+			TCatFeature catFeature = obliviousTrees.CatFeatures(i);
+
+			FieldName name = FieldName.create(catFeature.FeatureId());
+
+			DataField dataField = encoder.createDataField(name, OpType.CATEGORICAL, DataType.STRING);
+
+			Collection<String> values = catFeatureValues.get(name.getValue());
+
+			catFeatures.put(catFeature.Index(), new CatFeature(name, values));
+		}
+
+		for(int i = 0; i < oneHotFeaturesLength; i++){
+			TOneHotFeature oneHotFeature = obliviousTrees.OneHotFeatures(i);
+
+			CatFeature catFeature = catFeatures.get(oneHotFeature.Index());
+
+			for(int j = 0; j < oneHotFeature.ValuesLength(); j++){
+				String value = getOneHotValue(oneHotFeature, j, catFeature);
+
+				splits.add(new OneHotSplit(catFeature.getName(), value));
+			}
+		}
+
+		for(int i = 0; i < ctrFeaturesLength; i++){
+			TCtrFeature ctrFeature = obliviousTrees.CtrFeatures(i);
+
+			DerivedField derivedField = encodeCtrFeature(i, ctrFeature, catBoostModel, floatFeatureNames, catFeatures, encoder);
+
+			int borderLength = ctrFeature.BordersLength();
+
+			for(int j = 0; j < borderLength; j++){
+				splits.add(new BinSplit(derivedField.getName(), j));
+			}
+		}
+
+		return splits;
+	}
+
+	/**
+	 * <p>
+	 * Encodes a CTR feature as a lookup from the combination of raw feature values to the bin index of the CTR value.
+	 * </p>
+	 *
+	 * <p>
+	 * The CBM file identifies categorical feature values by their hash only.
+	 * The lookup is populated by hashing the known values of categorical features,
+	 * and all other values fall back to the bin index of the CTR value for unseen combinations.
+	 * </p>
+	 */
+	static
+	private DerivedField encodeCtrFeature(int index, TCtrFeature ctrFeature, CatBoostModel catBoostModel, Map<Integer, FieldName> floatFeatureNames, Map<Integer, CatFeature> catFeatures, CatBoostEncoder encoder){
+		TModelCtr ctr = ctrFeature.Ctr();
+
+		TModelCtrBase ctrBase = ctr.Base();
+
+		TFeatureCombination featureCombination = ctrBase.FeatureCombination();
+
+		TCtrValueTable ctrValueTable = catBoostModel.getCtrValueTable(ctrBase);
+
+		Map<Long, Integer> indexHashes = CtrUtil.parseIndexHashes(ctrValueTable);
+
+		float[] ctrValues = CtrUtil.calculateCtrValues(ctr, ctrValueTable);
+
+		float[] borders = new float[ctrFeature.BordersLength()];
+
+		for(int i = 0; i < borders.length; i++){
+			borders[i] = ctrFeature.Borders(i);
+		}
+
+		List<FieldName> names = new ArrayList<>();
+
+		// The candidate values of every component of the combination, and their hashes
+		List<List<?>> values = new ArrayList<>();
+		List<long[]> valueHashes = new ArrayList<>();
+
+		for(int i = 0; i < featureCombination.CatFeaturesLength(); i++){
+			CatFeature catFeature = catFeatures.get(featureCombination.CatFeatures(i));
+
+			Collection<String> catValues = catFeature.getValues();
+			if(catValues == null){
+				throw new IllegalArgumentException("Categorical feature " + catFeature.getName() + " is used in CTR features, but its values are not known. Specify them using the " + HasCatBoostOptions.OPTION_CAT_FEATURE_VALUES + " option");
+			}
+
+			names.add(catFeature.getName());
+
+			List<String> componentValues = new ArrayList<>(catValues);
+
+			long[] componentValueHashes = new long[componentValues.size()];
+
+			for(int j = 0; j < componentValues.size(); j++){
+				componentValueHashes[j] = HashUtil.hashCatFeature(componentValues.get(j));
+			}
+
+			values.add(componentValues);
+			valueHashes.add(componentValueHashes);
+		}
+
+		for(int i = 0; i < featureCombination.FloatSplitsLength(); i++){
+			TFloatSplit floatSplit = featureCombination.FloatSplits(i);
+
+			FieldName floatFeatureName = floatFeatureNames.get(floatSplit.Index());
+			float border = floatSplit.Border();
+
+			DerivedField derivedField = encoder.ensureDerivedField(FieldName.create("greaterThan(" + floatFeatureName.getValue() + ", " + border + ")"), OpType.CATEGORICAL, DataType.INTEGER, () -> PMMLUtil.createApply("if", PMMLUtil.createApply("greaterThan", new FieldRef(floatFeatureName), PMMLUtil.createConstant(border)), PMMLUtil.createConstant(1), PMMLUtil.createConstant(0)));
+
+			names.add(derivedField.getName());
+
+			values.add(CatBoostUtil.BINARY_VALUES);
+			valueHashes.add(CatBoostUtil.BINARY_VALUE_HASHES);
+		}
+
+		for(int i = 0; i < featureCombination.OneHotSplitsLength(); i++){
+			TOneHotSplit oneHotSplit = featureCombination.OneHotSplits(i);
+
+			CatFeature catFeature = catFeatures.get(oneHotSplit.Index());
+			String value = findCatFeatureValue(catFeature, oneHotSplit.Value());
+
+			DerivedField derivedField = encoder.ensureDerivedField(FieldName.create("equal(" + (catFeature.getName()).getValue() + ", " + value + ")"), OpType.CATEGORICAL, DataType.INTEGER, () -> PMMLUtil.createApply("if", PMMLUtil.createApply("equal", new FieldRef(catFeature.getName()), new Constant(value)), PMMLUtil.createConstant(1), PMMLUtil.createConstant(0)));
+
+			names.add(derivedField.getName());
+
+			values.add(CatBoostUtil.BINARY_VALUES);
+			valueHashes.add(CatBoostUtil.BINARY_VALUE_HASHES);
+		}
+
+		int defaultBin = CatBoostScorer.binarize(CtrUtil.calculateEmptyCtrValue(ctr, ctrValueTable), borders);
+
+		List<List<Object>> binKeys = new ArrayList<>();
+		List<Integer> bins = new ArrayList<>();
+
+		// Only combinations that are present in the CTR value table are materialized
+		List<int[]> combinations = CtrUtil.findCombinations(valueHashes, indexHashes.keySet());
+
+		for(int[] combination : combinations){
+			int ctrIndex = indexHashes.get(CtrUtil.calculateHash(valueHashes, combination));
+
+			int bin = CatBoostScorer.binarize(ctrValues[ctrIndex], borders);
+
+			// Unseen combinations map to the default bin anyway
+			if(bin == defaultBin){
+				continue;
+			}
+
+			List<Object> key = new ArrayList<>(combination.length);
+
+			for(int i = 0; i < combination.length; i++){
+				key.add((values.get(i)).get(combination[i]));
+			}
+
+			binKeys.add(key);
+			bins.add(bin);
+		}
+
+		MapValues mapValues = encodeMapValues(names, binKeys, bins)
+			.setDataType(DataType.INTEGER)
+			.setDefaultValue(defaultBin);
+
+		String ctrName = ECtrType.name(ctrBase.CtrType()) + "(" + names.stream().map(FieldName::getValue).collect(Collectors.joining(", ")) + ")";
+
+		return encoder.createDerivedField(FieldName.create("bin(ctr" + index + "(" + ctrName + "))"), OpType.CONTINUOUS, DataType.INTEGER, mapValues);
+	}
+
+	static
+	private String getOneHotValue(TOneHotFeature oneHotFeature, int index, CatFeature catFeature){
+
+		if(oneHotFeature.StringValuesLength() > 0){
+			return oneHotFeature.StringValues(index);
+		}
+
+		return findCatFeatureValue(catFeature, oneHotFeature.Values(index));
+	}
 
-		Map<String, ?> lossFunction = (Map)paramsMap.get("loss_function");
+	static
+	private String findCatFeatureValue(CatFeature catFeature, int hash){
+		Collection<String> values = catFeature.getValues();
 
-		String lossFunctionType = (String)lossFunction.get("type");
+		if(values == null){
+			throw new IllegalArgumentException("Categorical feature " + catFeature.getName() + " is used in one-hot splits, but its values are not known. Specify them using the " + HasCatBoostOptions.OPTION_CAT_FEATURE_VALUES + " option");
+		}
 
-		List<Split> splits = encodeFeatures(obliviousTrees, encoder);
+		for(String value : values){
 
-		MiningModel miningModel = encodeModel(obliviousTrees, lossFunctionType, splits, encoder);
+			if(HashUtil.hashCatFeature(value) == hash){
+				return value;
+			}
+		}
 
-		return encoder.encodePMML(miningModel);
+		throw new IllegalArgumentException("Categorical feature " + catFeature.getName() + " value with hash " + hash + " not found");
 	}
 
 	static
-	private List<Split> encodeFeatures(TObliviousTrees obliviousTrees, CatBoostEncoder encoder){
-		int catFeaturesLength = obliviousTrees.CatFeaturesLength();
-		int floatFeaturesLength = obliviousTrees.FloatFeaturesLength();
-		int oneHotFeaturesLength = obliviousTrees.OneHotFeaturesLength();
-		int ctrFeaturesLength = obliviousTrees.CtrFeaturesLength();
+	private MapValues encodeMapValues(List<FieldName> names, List<List<Object>> keys, List<Integer> values){
+
+		if(names.size() == 1){
+			List<Object> singleKeys = keys.stream()
+				.map(key -> key.get(0))
+				.collect(Collectors.toList());
 
-		if(catFeaturesLength != 0 || oneHotFeaturesLength != 0 || ctrFeaturesLength != 0){
-			throw new IllegalArgumentException();
+			return PMMLUtil.createMapValues(names.get(0), singleKeys, values);
 		}
 
-		List<List<Split>> featureSplits = new ArrayList<>();
+		Map<String, List<Object>> data = new LinkedHashMap<>();
 
-		Split nullSplit = new Split(null){
+		MapValues mapValues = new MapValues("data:output", null, null);
 
-			@Override
-			public String toString(){
-				return null;
-			}
-		};
+		for(int i = 0; i < names.size(); i++){
+			String column = "data:input" + i;
 
-		int featuresLength = (catFeaturesLength + floatFeaturesLength);
-		for(int i = 0; i < featuresLength; i++){
-			featureSplits.add(Collections.singletonList(nullSplit));
+			int index = i;
+
+			data.put(column, keys.stream().map(key -> key.get(index)).collect(Collectors.toList()));
+
+			mapValues.addFieldColumnPairs(new FieldColumnPair(names.get(i), column));
 		}
 
-		for(int i = 0; i < floatFeaturesLength; i++){
-			TFloatFeature floatFeature = obliviousTrees.FloatFeatures(i);
+		data.put("data:output", new ArrayList<>(values));
 
-			FieldName name = FieldName.create(floatFeature.FeatureId());
+		mapValues.setInlineTable(PMMLUtil.createInlineTable(data));
 
-			DataField dataField = encoder.createDataField(name, OpType.CONTINUOUS, DataType.FLOAT);
+		return mapValues;
+	}
 
-			List<Split> floatSplits = new ArrayList<>();
+	/**
+	 * <p>
+	 * A TreeModel leaf holds a single value.
+	 * The split structure of a multi-dimensional tree is shared by computing the leaf index once, and mapping it to leaf values once per dimension.
+	 * Sharing is the default for multi-dimensional models, unless the tree encoding has been requested explicitly.
+	 * </p>
+	 *
+	 * @return <code>true</code> if trees should be encoded as lookup tables, <code>false</code> otherwise.
+	 *
+	 * @see HasCatBoostOptions#OPTION_SHARED_TREES
+	 */
+	static
+	boolean resolveLookupTable(Map<String, ?> options, int numDimensions){
+		Boolean compact = (Boolean)options.get(HasCatBoostOptions.OPTION_COMPACT);
+		Boolean lookupTable = (Boolean)options.get(HasCatBoostOptions.OPTION_LOOKUP_TABLE);
+		Boolean sharedTrees = (Boolean)options.get(HasCatBoostOptions.OPTION_SHARED_TREES);
 
-			int borderLength = floatFeature.BordersLength();
-			for(int j = 0; j < borderLength; j++){
-				float border = floatFeature.Borders(j);
+		boolean treeEncoding = (Boolean.TRUE.equals(compact) || Boolean.FALSE.equals(lookupTable));
 
-				floatSplits.add(new FloatSplit(name, border));
-			}
+		if(sharedTrees == null){
+			sharedTrees = (numDimensions > 1 && !treeEncoding);
+		} else
 
-			featureSplits.set(floatFeature.Index(), floatSplits);
-		}
+		if(sharedTrees && numDimensions > 1 && treeEncoding){
+			throw new IllegalArgumentException("Shared trees require the lookup table encoding, but the tree encoding was requested (" + HasCatBoostOptions.OPTION_COMPACT + "=" + compact + ", " + HasCatBoostOptions.OPTION_LOOKUP_TABLE + "=" + lookupTable + ")");
+		} // End if
 
-		List<Split> splits = featureSplits.stream()
-			.flatMap(indexSplits -> indexSplits.stream())
-			.collect(Collectors.toList());
+		if(sharedTrees && numDimensions > 1){
+			return true;
+		}
 
-		return splits;
+		return Boolean.TRUE.equals(lookupTable);
 	}
 
 	static
-	private MiningModel encodeModel(TObliviousTrees obliviousTrees, String lossFunctionType, List<Split> splits, CatBoostEncoder encoder){
+	private Model encodeModel(TObliviousTrees obliviousTrees, String lossFunctionType, List<Split> splits, Map<String, ?> options, Map<TreeModel, Supplier<Node>> deferredNodes, CatBoostEncoder encoder, ConversionMetrics metrics){
+		Boolean compact = (Boolean)options.get(HasCatBoostOptions.OPTION_COMPACT);
+		Number compactTolerance = (Number)options.get(HasCatBoostOptions.OPTION_COMPACT_TOLERANCE);
+		Number pruneTolerance = (Number)options.get(HasCatBoostOptions.OPTION_PRUNE_TOLERANCE);
+		Number leafValuePrecision = (Number)options.get(HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION);
+		Number ntreeEnd = (Number)options.get(HasCatBoostOptions.OPTION_NTREE_END);
+		List<?> stagedNtreeEndValues = (List<?>)options.get(HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS);
+
+		if(compact == null){
+			compact = Boolean.FALSE;
+		} // End if
+
+		if(compactTolerance == null){
+			compactTolerance = 0d;
+		} // End if
+
 		MiningFunction miningFunction;
 
 		switch(lossFunctionType){
@@ -172,6 +983,8 @@ public class CatBoostUtil {
 
 		int numDimensions = obliviousTrees.ApproxDimension();
 
+		boolean lookupTable = resolveLookupTable(options, numDimensions);
+
 		Label label;
 
 		switch(miningFunction){
@@ -209,20 +1022,53 @@ public class CatBoostUtil {
 
 		int numTrees = obliviousTrees.TreeSizesLength();
 
-		int[] treeSplits = new int[obliviousTrees.TreeSplitsLength()];
+		if(ntreeEnd != null){
 
-		IntBuffer treeSplitsBuf = (obliviousTrees.TreeSplitsAsByteBuffer()).asIntBuffer();
+			if(ntreeEnd.intValue() < 1){
+				throw new IllegalArgumentException("Tree count " + ntreeEnd + " is not positive");
+			}
+
+			numTrees = Math.min(numTrees, ntreeEnd.intValue());
+		}
+
+		int numStagedTrees = numTrees;
+
+		List<Integer> stagedNtreeEnds;
+
+		if(stagedNtreeEndValues != null){
+			stagedNtreeEnds = stagedNtreeEndValues.stream()
+				.map(stagedNtreeEndValue -> ((Number)stagedNtreeEndValue).intValue())
+				.collect(Collectors.toList());
+		} else
+
+		{
+			stagedNtreeEnds = Collections.emptyList();
+		}
 
-		treeSplitsBuf.get(treeSplits);
+		// The trees are partitioned into stages, so that every staged tree count falls on a stage boundary
+		int[] stageBoundaries = stagedNtreeEnds.stream()
+			.peek(stagedNtreeEnd -> {
+
+				if(stagedNtreeEnd < 1){
+					throw new IllegalArgumentException("Tree count " + stagedNtreeEnd + " is not positive");
+				}
+			})
+			.mapToInt(Integer::intValue)
+			.filter(stagedNtreeEnd -> stagedNtreeEnd < numStagedTrees)
+			.distinct()
+			.sorted()
+			.toArray();
+
+		// Tree arrays are accessed in place, without copying them to the heap
+		IntBuffer treeSplitsBuf = (obliviousTrees.TreeSplitsAsByteBuffer()).asIntBuffer();
 
 		DoubleBuffer leafValuesBuf = (obliviousTrees.LeafValuesAsByteBuffer()).asDoubleBuffer();
 		DoubleBuffer leafWeightsBuf = (obliviousTrees.LeafWeightsAsByteBuffer()).asDoubleBuffer();
 
-		double[] leafValues = new double[obliviousTrees.LeafValuesLength()];
-		double[] leafWeights = new double[obliviousTrees.LeafWeightsLength()];
+		boolean[] prunedTrees = CompressionUtil.selectPrunedTrees(obliviousTrees, pruneTolerance);
 
-		leafValuesBuf.get(leafValues);
-		leafWeightsBuf.get(leafWeights);
+		// If all trees are pruned, then both encodings degrade to an intercept-only model
+		metrics.setNumTrees(numTrees - Booleans.countTrue(Arrays.copyOf(prunedTrees, numTrees)));
 
 		Label segmentLabel;
 
@@ -237,11 +1083,20 @@ public class CatBoostUtil {
 				throw new IllegalArgumentException();
 		}
 
-		List<MiningModel> miningModels = new ArrayList<>();
+		List<Model> models = new ArrayList<>();
+
+		List<List<Model>> dimStageModels = new ArrayList<>();
 
 		for(int dim = 0; dim < numDimensions; dim++){
+			List<Model> stageModels = new ArrayList<>();
+
 			List<TreeModel> treeModels = new ArrayList<>();
 
+			List<Feature> leafValueFeatures = new ArrayList<>();
+			List<Double> leafValueCoefficients = new ArrayList<>();
+
+			double intercept = 0d;
+
 			int treeSplitsPtr = 0;
 
 			int treeLeafValuesPtr = 0;
@@ -251,24 +1106,81 @@ public class CatBoostUtil {
 				int numLevels = obliviousTrees.TreeSizes(tree);
 				int numNodes = (1 << numLevels);
 
-				int[] treeTreeSplits = new int[numLevels];
+				checkInterrupted();
+
+				if(stageModels.size() < stageBoundaries.length && tree == stageBoundaries[stageModels.size()]){
+					stageModels.add(encodeStageModel(treeModels, leafValueFeatures, leafValueCoefficients, intercept, lookupTable, new ContinuousLabel(null, DataType.DOUBLE)));
 
-				System.arraycopy(treeSplits, treeSplitsPtr, treeTreeSplits, 0, numLevels);
+					treeModels = new ArrayList<>();
 
-				double[] treeLeafValues = new double[numNodes];
-				double[] treeLeafWeights = new double[numNodes];
+					leafValueFeatures = new ArrayList<>();
+					leafValueCoefficients = new ArrayList<>();
 
-				for(int i = 0; i < numNodes; i++){
-					treeLeafValues[i] = leafValues[treeLeafValuesPtr + (i * numDimensions) + dim];
+					intercept = 0d;
+				} // End if
+
+				if(prunedTrees[tree]){
+					treeSplitsPtr += numLevels;
+
+					treeLeafValuesPtr += (numDimensions * numNodes);
+					treeLeafWeightsPtr += numNodes;
+
+					continue;
 				}
 
-				System.arraycopy(leafWeights, treeLeafWeightsPtr, treeLeafWeights, 0, numNodes);
+				ObliviousTreeView treeView = new ObliviousTreeView(treeSplitsBuf, treeSplitsPtr, numLevels, leafValuesBuf, treeLeafValuesPtr, numDimensions, dim, leafWeightsBuf, treeLeafWeightsPtr, leafValuePrecision);
+
+				if(lookupTable){
+
+					// A tree without splits contributes a constant value
+					if(numLevels == 0){
+						intercept += treeView.getLeafValue(0);
+					} else
+
+					{
+						DerivedField leafIndexField = encoder.ensureDerivedField(FieldName.create("leafIndex(" + tree + ")"), OpType.CATEGORICAL, DataType.INTEGER, () -> encodeLeafIndex(treeView, splits));
+
+						FieldName name;
+
+						if(numDimensions == 1){
+							name = FieldName.create("leafValue(" + tree + ")");
+						} else
+
+						{
+							name = FieldName.create("leafValue(" + tree + ", " + dim + ")");
+						}
+
+						List<Integer> leafIndices = new ArrayList<>();
+						List<Double> leafIndexValues = new ArrayList<>();
+
+						for(int i = 0; i < numNodes; i++){
+							leafIndices.add(i);
+							leafIndexValues.add(treeView.getLeafValue(i));
+						}
+
+						MapValues mapValues = PMMLUtil.createMapValues(leafIndexField.getName(), leafIndices, leafIndexValues)
+							.setDataType(DataType.DOUBLE);
+
+						DerivedField leafValueField = encoder.createDerivedField(name, OpType.CONTINUOUS, DataType.DOUBLE, mapValues);
+
+						leafValueFeatures.add(new ContinuousFeature(encoder, leafValueField));
+						leafValueCoefficients.add(1d);
+					}
+				} else
+
+				{
+					boolean compactNodes = compact;
+					double compactNodesTolerance = compactTolerance.doubleValue();
+
+					Supplier<Node> nodeSupplier = () -> encodeNode(new True(), 0, 0, treeView, splits, compactNodes, compactNodesTolerance, new IdentityHashMap<>());
 
-				Node root = encodeNode(new True(), 0, 0, numLevels, treeTreeSplits, treeLeafValues, treeLeafWeights, splits);
+					// The full node structure is generated later, possibly in parallel with other trees
+					TreeModel treeModel = new TreeModel(MiningFunction.REGRESSION, new MiningSchema(), encodeStubNode(treeView, splits));
 
-				TreeModel treeModel = new TreeModel(MiningFunction.REGRESSION, new MiningSchema(), root);
+					deferredNodes.put(treeModel, nodeSupplier);
 
-				treeModels.add(treeModel);
+					treeModels.add(treeModel);
+				}
 
 				treeSplitsPtr += numLevels;
 
@@ -276,8 +1188,15 @@ public class CatBoostUtil {
 				treeLeafWeightsPtr += numNodes;
 			}
 
-			MiningModel miningModel = new MiningModel(MiningFunction.REGRESSION, ModelUtil.createMiningSchema(segmentLabel))
-				.setSegmentation(MiningModelUtil.createSegmentation(Segmentation.MultipleModelMethod.SUM, treeModels));
+			if(stageBoundaries.length > 0){
+				stageModels.add(encodeStageModel(treeModels, leafValueFeatures, leafValueCoefficients, intercept, lookupTable, new ContinuousLabel(null, DataType.DOUBLE)));
+
+				dimStageModels.add(stageModels);
+
+				continue;
+			}
+
+			Model model = encodeStageModel(treeModels, leafValueFeatures, leafValueCoefficients, intercept, lookupTable, segmentLabel);
 
 			switch(miningFunction){
 				case CLASSIFICATION:
@@ -292,17 +1211,21 @@ public class CatBoostUtil {
 							name = FieldName.create("cbValue(" + dim + ")");
 						}
 
-						miningModel.setOutput(ModelUtil.createPredictedOutput(name, OpType.CONTINUOUS, DataType.DOUBLE));
+						model.setOutput(ModelUtil.createPredictedOutput(name, OpType.CONTINUOUS, DataType.DOUBLE));
 					}
 					break;
 				default:
 					break;
 			}
 
-			miningModels.add(miningModel);
+			models.add(model);
+		}
+
+		if(!dimStageModels.isEmpty()){
+			return encodeStagedModel(dimStageModels, stageBoundaries, stagedNtreeEnds, miningFunction, label, encoder);
 		}
 
-		MiningModel miningModel;
+		Model model;
 
 		switch(miningFunction){
 			case CLASSIFICATION:
@@ -310,11 +1233,11 @@ public class CatBoostUtil {
 					Schema schema = new Schema(label, Collections.emptyList());
 
 					if(numDimensions == 1){
-						miningModel = MiningModelUtil.createBinaryLogisticClassification(Iterables.getOnlyElement(miningModels), 1d, 0d, RegressionModel.NormalizationMethod.LOGIT, true, schema);
+						model = MiningModelUtil.createBinaryLogisticClassification(Iterables.getOnlyElement(models), 1d, 0d, RegressionModel.NormalizationMethod.LOGIT, true, schema);
 					} else
 
 					if(numDimensions > 1){
-						miningModel = MiningModelUtil.createClassification(miningModels, RegressionModel.NormalizationMethod.SOFTMAX, true, schema);
+						model = MiningModelUtil.createClassification(models, RegressionModel.NormalizationMethod.SOFTMAX, true, schema);
 					} else
 
 					{
@@ -324,22 +1247,174 @@ public class CatBoostUtil {
 				break;
 			case REGRESSION:
 				{
-					miningModel = Iterables.getOnlyElement(miningModels);
+					model = Iterables.getOnlyElement(models);
 				}
 				break;
 			default:
 				throw new IllegalArgumentException();
 		}
 
+		return model;
+	}
+
+	static
+	private Model encodeStageModel(List<TreeModel> treeModels, List<Feature> leafValueFeatures, List<Double> leafValueCoefficients, double intercept, boolean lookupTable, Label label){
+
+		// A stage without trees (eg. all of them were pruned) contributes the intercept only
+		if(lookupTable || treeModels.isEmpty()){
+			Label regressionLabel = (label instanceof ContinuousLabel ? label : new ContinuousLabel(null, DataType.DOUBLE));
+
+			return RegressionModelUtil.createRegression(leafValueFeatures, leafValueCoefficients, intercept, RegressionModel.NormalizationMethod.NONE, new Schema(regressionLabel, leafValueFeatures));
+		}
+
+		MiningModel miningModel = new MiningModel(MiningFunction.REGRESSION, ModelUtil.createMiningSchema(label))
+			.setSegmentation(MiningModelUtil.createSegmentation(Segmentation.MultipleModelMethod.SUM, treeModels));
+
 		return miningModel;
 	}
 
+	/**
+	 * <p>
+	 * Chains stage models, and sums up their predictions in the final model.
+	 * The raw score of the first N trees is exposed as the "partialSum(N)" output field of the final model.
+	 * </p>
+	 */
+	static
+	private Model encodeStagedModel(List<List<Model>> dimStageModels, int[] stageBoundaries, List<Integer> stagedNtreeEnds, MiningFunction miningFunction, Label label, CatBoostEncoder encoder){
+		int numDimensions = dimStageModels.size();
+
+		List<Model> chainModels = new ArrayList<>();
+
+		List<List<Feature>> dimStageFeatures = new ArrayList<>();
+
+		for(int dim = 0; dim < numDimensions; dim++){
+			List<Model> stageModels = dimStageModels.get(dim);
+
+			List<Feature> stageFeatures = new ArrayList<>();
+
+			for(int i = 0; i < stageModels.size(); i++){
+				Model stageModel = stageModels.get(i);
+
+				FieldName name;
+
+				if(numDimensions == 1){
+					name = FieldName.create("stageValue(" + i + ")");
+				} else
+
+				{
+					name = FieldName.create("stageValue(" + i + ", " + dim + ")");
+				}
+
+				stageModel.setOutput(ModelUtil.createPredictedOutput(name, OpType.CONTINUOUS, DataType.DOUBLE));
+
+				stageFeatures.add(new ContinuousFeature(encoder, name, DataType.DOUBLE));
+			}
+
+			chainModels.addAll(stageModels);
+
+			dimStageFeatures.add(stageFeatures);
+		}
+
+		List<Double> stageCoefficients = Collections.nCopies(stageBoundaries.length + 1, 1d);
+
+		Model model;
+
+		switch(miningFunction){
+			case CLASSIFICATION:
+				{
+					CategoricalLabel categoricalLabel = (CategoricalLabel)label;
+
+					if(numDimensions == 1){
+						List<Feature> stageFeatures = Iterables.getOnlyElement(dimStageFeatures);
+
+						model = RegressionModelUtil.createBinaryLogisticClassification(stageFeatures, stageCoefficients, null, RegressionModel.NormalizationMethod.LOGIT, true, new Schema(categoricalLabel, stageFeatures));
+					} else
+
+					{
+						List<RegressionTable> regressionTables = new ArrayList<>();
+
+						for(int dim = 0; dim < numDimensions; dim++){
+							RegressionTable regressionTable = RegressionModelUtil.createRegressionTable(dimStageFeatures.get(dim), stageCoefficients, null)
+								.setTargetCategory(categoricalLabel.getValue(dim));
+
+							regressionTables.add(regressionTable);
+						}
+
+						model = new RegressionModel(MiningFunction.CLASSIFICATION, ModelUtil.createMiningSchema(categoricalLabel), regressionTables)
+							.setNormalizationMethod(RegressionModel.NormalizationMethod.SOFTMAX)
+							.setOutput(ModelUtil.createProbabilityOutput(DataType.DOUBLE, categoricalLabel));
+					}
+				}
+				break;
+			case REGRESSION:
+				{
+					List<Feature> stageFeatures = Iterables.getOnlyElement(dimStageFeatures);
+
+					model = RegressionModelUtil.createRegression(stageFeatures, stageCoefficients, null, RegressionModel.NormalizationMethod.NONE, new Schema(label, stageFeatures));
+				}
+				break;
+			default:
+				throw new IllegalArgumentException();
+		}
+
+		Output output = model.getOutput();
+		if(output == null){
+			output = new Output();
+
+			model.setOutput(output);
+		}
+
+		for(int dim = 0; dim < numDimensions; dim++){
+			List<Feature> stageFeatures = dimStageFeatures.get(dim);
+
+			for(Integer stagedNtreeEnd : new LinkedHashSet<>(stagedNtreeEnds)){
+				int index = Arrays.binarySearch(stageBoundaries, stagedNtreeEnd);
+
+				int numStages = (index > -1 ? index + 1 : stageFeatures.size());
+
+				Expression expression = null;
+
+				for(int i = 0; i < numStages; i++){
+					Expression stageExpression = new FieldRef((stageFeatures.get(i)).getName());
+
+					if(expression == null){
+						expression = stageExpression;
+					} else
+
+					{
+						expression = PMMLUtil.createApply("+", expression, stageExpression);
+					}
+				}
+
+				FieldName name;
+
+				if(numDimensions == 1){
+					name = FieldName.create("partialSum(" + stagedNtreeEnd + ")");
+				} else
+
+				{
+					name = FieldName.create("partialSum(" + stagedNtreeEnd + ", " + dim + ")");
+				}
+
+				OutputField outputField = new OutputField(name, OpType.CONTINUOUS, DataType.DOUBLE)
+					.setResultFeature(ResultFeature.TRANSFORMED_VALUE)
+					.setExpression(expression);
+
+				output.addOutputFields(outputField);
+			}
+		}
+
+		chainModels.add(model);
+
+		return MiningModelUtil.createModelChain(chainModels);
+	}
+
 	static
-	private Node encodeNode(Predicate predicate, int index, int depth, int numLevels, int[] treeSplits, double[] leafValues, double[] leafWeights, List<Split> splits){
+	private Node encodeNode(Predicate predicate, int index, int depth, ObliviousTreeView treeView, List<Split> splits, boolean compact, double compactTolerance, Map<Node, double[]> leafRanges){
 
-		if(depth >= numLevels){
-			double leafValue = leafValues[index];
-			double leafWeight = leafWeights[index];
+		if(depth >= treeView.getNumLevels()){
+			double leafValue = treeView.getLeafValue(index);
+			double leafWeight = treeView.getLeafWeight(index);
 
 			Node result = new CountingLeafNode(leafValue, predicate)
 				.setRecordCount(leafWeight);
@@ -347,34 +1422,204 @@ public class CatBoostUtil {
 			return result;
 		}
 
-		int treeSplit = treeSplits[depth];
+		int treeSplit = treeView.getSplit(depth);
 
 		Split split = splits.get(treeSplit);
 
-		Predicate leftPredicate;
-		Predicate rightPredicate;
+		Predicate leftPredicate = split.getLeftPredicate();
+		Predicate rightPredicate = split.getRightPredicate();
 
-		if(split instanceof FloatSplit){
-			FloatSplit floatSplit = (FloatSplit)splits.get(treeSplit);
+		int depthMask = (1 << depth);
 
-			FieldName name = floatSplit.getName();
-			Number value = floatSplit.getBorder();
+		Node leftChild = encodeNode(leftPredicate, index, depth + 1, treeView, splits, compact, compactTolerance, leafRanges);
+		Node rightChild = encodeNode(rightPredicate, index | depthMask, depth + 1, treeView, splits, compact, compactTolerance, leafRanges);
 
-			leftPredicate = new SimplePredicate(name, SimplePredicate.Operator.LESS_OR_EQUAL, value);
-			rightPredicate = new SimplePredicate(name, SimplePredicate.Operator.GREATER_THAN, value);
-		} else
+		// A split is redundant if both of its subtrees make the same predictions
+		if(compact && equivalentNodes(leftChild, rightChild, compactTolerance, leafRanges)){
+			return mergeNodes(predicate, leftChild, rightChild, leafRanges);
+		}
 
-		{
-			throw new IllegalArgumentException();
+		Node result = new BranchNode(null, predicate)
+			.addNodes(leftChild, rightChild);
+
+		return result;
+	}
+
+	static
+	private Node encodeStubNode(ObliviousTreeView treeView, List<Split> splits){
+		Node result = new BranchNode(null, new True());
+
+		// Keep one reference to every split field, so that model cleaners see the same field usage as with the full node structure
+		for(int depth = 0; depth < treeView.getNumLevels(); depth++){
+			Split split = splits.get(treeView.getSplit(depth));
+
+			result.addNodes(new LeafNode(null, split.getRightPredicate()));
 		}
 
-		int depthMask = (1 << depth);
+		return result;
+	}
 
-		Node leftChild = encodeNode(leftPredicate, index, depth + 1, numLevels, treeSplits, leafValues, leafWeights, splits);
-		Node rightChild = encodeNode(rightPredicate, index | depthMask, depth + 1, numLevels, treeSplits, leafValues, leafWeights, splits);
+	static
+	private boolean equivalentNodes(Node left, Node right, double tolerance, Map<Node, double[]> leafRanges){
 
-		Node result = new BranchNode(null, predicate)
-			.addNodes(leftChild, rightChild);
+		if(left.hasNodes() != right.hasNodes()){
+			return false;
+		} // End if
+
+		if(!left.hasNodes()){
+			double[] leftRange = getLeafRange(left, leafRanges);
+			double[] rightRange = getLeafRange(right, leafRanges);
+
+			// Compare original leaf values, so that the error does not accumulate over repeated merges
+			return (Math.max(leftRange[1], rightRange[1]) - Math.min(leftRange[0], rightRange[0])) <= tolerance;
+		}
+
+		List<Node> leftChildren = left.getNodes();
+		List<Node> rightChildren = right.getNodes();
+
+		if(leftChildren.size() != rightChildren.size()){
+			return false;
+		}
+
+		for(int i = 0; i < leftChildren.size(); i++){
+			Node leftChild = leftChildren.get(i);
+			Node rightChild = rightChildren.get(i);
+
+			if(!equivalentPredicates(leftChild.getPredicate(), rightChild.getPredicate()) || !equivalentNodes(leftChild, rightChild, tolerance, leafRanges)){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static
+	private boolean equivalentPredicates(Predicate left, Predicate right){
+
+		if(left == right){
+			return true;
+		} // End if
+
+		if(left instanceof SimplePredicate && right instanceof SimplePredicate){
+			SimplePredicate leftSimplePredicate = (SimplePredicate)left;
+			SimplePredicate rightSimplePredicate = (SimplePredicate)right;
+
+			return Objects.equals(leftSimplePredicate.getField(), rightSimplePredicate.getField()) && Objects.equals(leftSimplePredicate.getOperator(), rightSimplePredicate.getOperator()) && Objects.equals(leftSimplePredicate.getValue(), rightSimplePredicate.getValue());
+		}
+
+		return false;
+	}
+
+	static
+	private Node mergeNodes(Predicate predicate, Node left, Node right, Map<Node, double[]> leafRanges){
+
+		if(!left.hasNodes()){
+			double leftScore = (Double)left.getScore();
+			double rightScore = (Double)right.getScore();
+
+			double leftRecordCount = (left.getRecordCount()).doubleValue();
+			double rightRecordCount = (right.getRecordCount()).doubleValue();
+
+			double recordCount = (leftRecordCount + rightRecordCount);
+
+			double score;
+
+			if(leftScore == rightScore){
+				score = leftScore;
+			} else
+
+			if(recordCount > 0d){
+				score = ((leftScore * leftRecordCount) + (rightScore * rightRecordCount)) / recordCount;
+			} else
+
+			{
+				score = (leftScore + rightScore) / 2d;
+			}
+
+			Node result = new CountingLeafNode(score, predicate)
+				.setRecordCount(recordCount);
+
+			double[] leftRange = getLeafRange(left, leafRanges);
+			double[] rightRange = getLeafRange(right, leafRanges);
+
+			leafRanges.put(result, new double[]{Math.min(leftRange[0], rightRange[0]), Math.max(leftRange[1], rightRange[1])});
+
+			return result;
+		}
+
+		List<Node> leftChildren = left.getNodes();
+		List<Node> rightChildren = right.getNodes();
+
+		Node result = new BranchNode(null, predicate);
+
+		for(int i = 0; i < leftChildren.size(); i++){
+			Node leftChild = leftChildren.get(i);
+			Node rightChild = rightChildren.get(i);
+
+			result.addNodes(mergeNodes(leftChild.getPredicate(), leftChild, rightChild, leafRanges));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return The min and max of the original leaf values that have been merged into the specified leaf node.
+	 */
+	static
+	private double[] getLeafRange(Node node, Map<Node, double[]> leafRanges){
+		double[] result = leafRanges.get(node);
+
+		if(result == null){
+			double score = (Double)node.getScore();
+
+			result = new double[]{score, score};
+		}
+
+		return result;
+	}
+
+	static
+	private Expression encodeLeafIndex(ObliviousTreeView treeView, List<Split> splits){
+		Expression result = null;
+
+		for(int depth = 0; depth < treeView.getNumLevels(); depth++){
+			Split split = splits.get(treeView.getSplit(depth));
+
+			Expression condition;
+
+			if(split instanceof FloatSplit){
+				FloatSplit floatSplit = (FloatSplit)split;
+
+				condition = PMMLUtil.createApply("greaterThan", new FieldRef(floatSplit.getName()), PMMLUtil.createConstant(floatSplit.getBorder()));
+			} else
+
+			if(split instanceof BinSplit){
+				BinSplit binSplit = (BinSplit)split;
+
+				condition = PMMLUtil.createApply("greaterThan", new FieldRef(binSplit.getName()), PMMLUtil.createConstant(binSplit.getBin()));
+			} else
+
+			if(split instanceof OneHotSplit){
+				OneHotSplit oneHotSplit = (OneHotSplit)split;
+
+				condition = PMMLUtil.createApply("equal", new FieldRef(oneHotSplit.getName()), new Constant(oneHotSplit.getValue()));
+			} else
+
+			{
+				throw new IllegalArgumentException();
+			}
+
+			// The right branch of the split at depth d sets the d-th bit of the leaf index
+			Expression bit = PMMLUtil.createApply("if", condition, PMMLUtil.createConstant(1 << depth), PMMLUtil.createConstant(0));
+
+			if(result == null){
+				result = bit;
+			} else
+
+			{
+				result = PMMLUtil.createApply("+", result, bit);
+			}
+		}
 
 		return result;
 	}
@@ -390,4 +1635,13 @@ public class CatBoostUtil {
 
 		return result;
 	}
-}
\ No newline at end of file
+
+	private interface ByteBufferReader {
+
+		ByteBuffer read() throws IOException;
+	}
+
+	private static final List<Integer> BINARY_VALUES = Arrays.asList(0, 1);
+
+	private static final long[] BINARY_VALUE_HASHES = {0L, 1L};
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The effect of tree pruning and leaf value rounding on a model.
+ * </p>
+ *
+ * @see HasCatBoostOptions#OPTION_PRUNE_TOLERANCE
+ * @see HasCatBoostOptions#OPTION_LEAF_VALUE_PRECISION
+ */
+public class CompressionReport {
+
+	private int numTrees = 0;
+
+	private int numPrunedTrees = 0;
+
+	private double[] maxErrors = null;
+
+
+	CompressionReport(int numTrees, int numPrunedTrees, double[] maxErrors){
+		this.numTrees = numTrees;
+		this.numPrunedTrees = numPrunedTrees;
+		this.maxErrors = maxErrors;
+	}
+
+	@Override
+	public String toString(){
+		return "Pruned " + getNumPrunedTrees() + " of " + getNumTrees() + " trees, worst-case raw score error " + getMaxError();
+	}
+
+	public int getNumTrees(){
+		return this.numTrees;
+	}
+
+	public int getNumPrunedTrees(){
+		return this.numPrunedTrees;
+	}
+
+	/**
+	 * @return The worst-case absolute error of the raw score (ie. before the inverse link function) in the specified dimension.
+	 */
+	public double getMaxError(int dim){
+		return this.maxErrors[dim];
+	}
+
+	/**
+	 * @return The worst-case absolute error of the raw score across all dimensions.
+	 * For binary classification models, the error of the probability is at most a quarter of it.
+	 */
+	public double getMaxError(){
+		return Arrays.stream(this.maxErrors).max().orElse(0d);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.DoubleBuffer;
+
+import NCatBoostFbs.TObliviousTrees;
+
+class CompressionUtil {
+
+	private CompressionUtil(){
+	}
+
+	/**
+	 * <p>
+	 * Selects trees whose leaf values are all smaller than the tolerance in absolute value.
+	 * A multi-dimensional tree is pruned only if this holds in all dimensions.
+	 * </p>
+	 *
+	 * @param pruneTolerance The tolerance, or <code>null</code> if no trees should be pruned.
+	 */
+	static
+	public boolean[] selectPrunedTrees(TObliviousTrees obliviousTrees, Number pruneTolerance){
+		int numTrees = obliviousTrees.TreeSizesLength();
+		int numDimensions = obliviousTrees.ApproxDimension();
+
+		boolean[] result = new boolean[numTrees];
+
+		if(pruneTolerance == null){
+			return result;
+		}
+
+		double tolerance = pruneTolerance.doubleValue();
+
+		DoubleBuffer leafValuesBuf = (obliviousTrees.LeafValuesAsByteBuffer()).asDoubleBuffer();
+
+		int treeLeafValuesPtr = 0;
+
+		for(int tree = 0; tree < numTrees; tree++){
+			int numValues = numDimensions * (1 << obliviousTrees.TreeSizes(tree));
+
+			result[tree] = (maxAbs(leafValuesBuf, treeLeafValuesPtr, numValues) < tolerance);
+
+			treeLeafValuesPtr += numValues;
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param leafValuePrecision The number of decimal places, or <code>null</code> if the value should be kept as-is.
+	 */
+	static
+	public double roundLeafValue(double value, Number leafValuePrecision){
+
+		if(leafValuePrecision == null || Double.isNaN(value) || Double.isInfinite(value)){
+			return value;
+		}
+
+		BigDecimal decimal = (new BigDecimal(value)).setScale(leafValuePrecision.intValue(), RoundingMode.HALF_EVEN);
+
+		return decimal.doubleValue();
+	}
+
+	/**
+	 * <p>
+	 * Calculates the worst-case absolute error of the raw score (ie. the sum of leaf values) in each dimension.
+	 * A pruned tree contributes its largest absolute leaf value, and a kept tree contributes its largest leaf value rounding error.
+	 * </p>
+	 *
+	 * @param ntreeEnd The number of leading trees to consider, or <code>null</code> if all trees should be considered.
+	 */
+	static
+	public CompressionReport createReport(TObliviousTrees obliviousTrees, Number ntreeEnd, Number pruneTolerance, Number leafValuePrecision){
+		int numTrees = obliviousTrees.TreeSizesLength();
+		int numDimensions = obliviousTrees.ApproxDimension();
+
+		if(ntreeEnd != null){
+			numTrees = Math.min(numTrees, ntreeEnd.intValue());
+		}
+
+		boolean[] prunedTrees = selectPrunedTrees(obliviousTrees, pruneTolerance);
+
+		DoubleBuffer leafValuesBuf = (obliviousTrees.LeafValuesAsByteBuffer()).asDoubleBuffer();
+
+		int numPrunedTrees = 0;
+
+		double[] maxErrors = new double[numDimensions];
+
+		int treeLeafValuesPtr = 0;
+
+		for(int tree = 0; tree < numTrees; tree++){
+			int numNodes = (1 << obliviousTrees.TreeSizes(tree));
+
+			if(prunedTrees[tree]){
+				numPrunedTrees++;
+			}
+
+			for(int dim = 0; dim < numDimensions; dim++){
+				double maxError = 0d;
+
+				for(int i = 0; i < numNodes; i++){
+					double value = leafValuesBuf.get(treeLeafValuesPtr + (i * numDimensions) + dim);
+
+					double error;
+
+					if(prunedTrees[tree]){
+						error = Math.abs(value);
+					} else
+
+					{
+						error = Math.abs(value - roundLeafValue(value, leafValuePrecision));
+					}
+
+					maxError = Math.max(maxError, error);
+				}
+
+				maxErrors[dim] += maxError;
+			}
+
+			treeLeafValuesPtr += (numDimensions * numNodes);
+		}
+
+		return new CompressionReport(numTrees, numPrunedTrees, maxErrors);
+	}
+
+	static
+	private double maxAbs(DoubleBuffer buffer, int offset, int length){
+		double result = 0d;
+
+		for(int i = 0; i < length; i++){
+			result = Math.max(result, Math.abs(buffer.get(offset + i)));
+		}
+
+		return result;
+	}
+}
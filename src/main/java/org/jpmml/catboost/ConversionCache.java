@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+/**
+ * <p>
+ * An on-disk cache of PMML files.
+ * </p>
+ *
+ * <p>
+ * Cache entries are keyed by the digest of the CBM file, the converter version and build, and the conversion options.
+ * When the total size of cache entries exceeds the limit, then the least recently used entries are evicted.
+ * </p>
+ */
+public class ConversionCache {
+
+	private File directory = null;
+
+	private long maxSize = 0L;
+
+	private AtomicLong hits = new AtomicLong();
+
+	private AtomicLong misses = new AtomicLong();
+
+	private Map<File, Integer> pins = new HashMap<>();
+
+	private Map<String, CompletableFuture<File>> conversions = new HashMap<>();
+
+
+	public ConversionCache(File directory, long maxSize) throws IOException {
+		setDirectory(directory);
+		setMaxSize(maxSize);
+
+		Files.createDirectories(directory.toPath());
+	}
+
+	/**
+	 * <p>
+	 * Writes the PMML representation of a CBM file, using a cached copy if there is one.
+	 * </p>
+	 *
+	 * <p>
+	 * The cache entry is pinned while it is being copied, so that concurrent conversions cannot evict it.
+	 * </p>
+	 */
+	public void writePMML(File cbmFile, Map<String, ?> options, OutputStream os) throws Exception {
+		File pmmlFile = acquirePMMLFile(cbmFile, options);
+
+		try {
+			Files.copy(pmmlFile.toPath(), os);
+		} finally {
+			release(pmmlFile);
+		}
+	}
+
+	/**
+	 * <p>
+	 * The returned cache entry is not pinned, and may be evicted by later conversions.
+	 * </p>
+	 *
+	 * @return The cache entry for a CBM file. Converts the CBM file if the cache entry does not exist yet.
+	 *
+	 * @see #writePMML(File, Map, OutputStream)
+	 */
+	public File getPMMLFile(File cbmFile, Map<String, ?> options) throws Exception {
+		File pmmlFile = acquirePMMLFile(cbmFile, options);
+
+		release(pmmlFile);
+
+		return pmmlFile;
+	}
+
+	/**
+	 * @return The pinned cache entry for a CBM file.
+	 */
+	private File acquirePMMLFile(File cbmFile, Map<String, ?> options) throws Exception {
+		String key = createKey(cbmFile, options);
+
+		File pmmlFile = new File(this.directory, key + ".pmml");
+
+		while(true){
+			CompletableFuture<File> conversion;
+
+			boolean converting = false;
+
+			synchronized(this){
+
+				if(pmmlFile.isFile()){
+					this.hits.incrementAndGet();
+
+					// Use the modification time for tracking the last access time
+					pmmlFile.setLastModified(System.currentTimeMillis());
+
+					pin(pmmlFile);
+
+					return pmmlFile;
+				}
+
+				conversion = this.conversions.get(key);
+
+				if(conversion == null){
+					conversion = new CompletableFuture<>();
+
+					this.conversions.put(key, conversion);
+
+					converting = true;
+				}
+			}
+
+			// Another thread is converting the same CBM file with the same options
+			if(!converting){
+
+				try {
+					conversion.get();
+				} catch(ExecutionException ee){
+					Throwable cause = ee.getCause();
+
+					throw (cause instanceof Exception ? (Exception)cause : ee);
+				}
+
+				continue;
+			}
+
+			this.misses.incrementAndGet();
+
+			try {
+				convert(cbmFile, options, pmmlFile);
+
+				conversion.complete(pmmlFile);
+			} catch(Exception e){
+				conversion.completeExceptionally(e);
+
+				throw e;
+			} finally {
+
+				synchronized(this){
+					this.conversions.remove(key);
+				}
+			}
+
+			return pmmlFile;
+		}
+	}
+
+	private void convert(File cbmFile, Map<String, ?> options, File pmmlFile) throws Exception {
+		File tmpFile = File.createTempFile(pmmlFile.getName(), ".tmp", this.directory);
+
+		try {
+			CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(cbmFile);
+
+			try(OutputStream os = Files.newOutputStream(tmpFile.toPath())){
+				CatBoostUtil.writePMML(catBoostModel, options, os);
+			}
+
+			synchronized(this){
+				Files.move(tmpFile.toPath(), pmmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				pin(pmmlFile);
+
+				evict();
+			}
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	private void pin(File pmmlFile){
+		this.pins.merge(pmmlFile, 1, Integer::sum);
+	}
+
+	synchronized
+	private void release(File pmmlFile){
+		this.pins.computeIfPresent(pmmlFile, (file, count) -> (count > 1 ? count - 1 : null));
+	}
+
+	public long getHits(){
+		return this.hits.get();
+	}
+
+	public long getMisses(){
+		return this.misses.get();
+	}
+
+	private void evict(){
+		File[] pmmlFiles = this.directory.listFiles((dir, name) -> name.endsWith(".pmml"));
+		if(pmmlFiles == null){
+			return;
+		}
+
+		long size = 0L;
+
+		for(File pmmlFile : pmmlFiles){
+			size += pmmlFile.length();
+		}
+
+		Arrays.sort(pmmlFiles, Comparator.comparingLong(File::lastModified));
+
+		for(File pmmlFile : pmmlFiles){
+
+			if(size <= this.maxSize){
+				break;
+			} // End if
+
+			// Pinned entries, including the newest one, are kept even if they exceed the limit
+			if(this.pins.containsKey(pmmlFile)){
+				continue;
+			}
+
+			long length = pmmlFile.length();
+
+			if(pmmlFile.delete()){
+				size -= length;
+			}
+		}
+	}
+
+	public File getDirectory(){
+		return this.directory;
+	}
+
+	private void setDirectory(File directory){
+		this.directory = Objects.requireNonNull(directory);
+	}
+
+	public long getMaxSize(){
+		return this.maxSize;
+	}
+
+	private void setMaxSize(long maxSize){
+
+		if(maxSize < 0L){
+			throw new IllegalArgumentException("Max size " + maxSize + " is negative");
+		}
+
+		this.maxSize = maxSize;
+	}
+
+	static
+	String createKey(File cbmFile, Map<String, ?> options) throws IOException {
+		MessageDigest digest = createDigest();
+
+		try(InputStream is = new DigestInputStream(Files.newInputStream(cbmFile.toPath()), digest)){
+			ByteStreams.exhaust(is);
+		}
+
+		digest.update((byte)0);
+		digest.update(getConverterVersion().getBytes(StandardCharsets.UTF_8));
+
+		digest.update((byte)0);
+		digest.update(formatOptions(options).getBytes(StandardCharsets.UTF_8));
+
+		return BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+
+	/**
+	 * <p>
+	 * The implementation version is the same for all builds of a snapshot version.
+	 * It is qualified with a digest of the converter's class files, so that cache entries do not survive code changes.
+	 * </p>
+	 */
+	static
+	String getConverterVersion(){
+		Package _package = ConversionCache.class.getPackage();
+
+		String version = (_package != null ? _package.getImplementationVersion() : null);
+		if(version == null){
+			version = "unknown";
+		}
+
+		return version + "+" + FingerprintHolder.FINGERPRINT;
+	}
+
+	/**
+	 * @return A digest of the JAR file or the class file directory that contains the converter.
+	 */
+	static
+	private String calculateFingerprint(){
+		MessageDigest digest = createDigest();
+
+		try {
+			File location = new File(((ConversionCache.class.getProtectionDomain()).getCodeSource().getLocation()).toURI());
+
+			if(location.isFile()){
+				digest.update(Files.readAllBytes(location.toPath()));
+			} else
+
+			{
+				Path packageDir = (location.toPath()).resolve(ConversionCache.class.getPackage().getName().replace('.', '/'));
+
+				List<Path> classFiles;
+
+				try(Stream<Path> paths = Files.walk(packageDir)){
+					classFiles = paths
+						.filter(path -> (path.toString()).endsWith(".class"))
+						.sorted()
+						.collect(Collectors.toList());
+				}
+
+				for(Path classFile : classFiles){
+					digest.update((packageDir.relativize(classFile)).toString().getBytes(StandardCharsets.UTF_8));
+					digest.update(Files.readAllBytes(classFile));
+				}
+			}
+		} catch(IOException | URISyntaxException | RuntimeException e){
+			return "unknown";
+		}
+
+		return BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+
+	static
+	private String formatOptions(Map<String, ?> options) throws IOException {
+		Map<String, Object> keyOptions = new TreeMap<>(options);
+
+		// The PMML output does not depend on the degree of parallelism
+		keyOptions.remove(HasCatBoostOptions.OPTION_PARALLELISM);
+
+		ObjectMapper objectMapper = new ObjectMapper()
+			.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+		return objectMapper.writeValueAsString(keyOptions);
+	}
+
+	static
+	private MessageDigest createDigest(){
+
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException nsae){
+			throw new IllegalStateException(nsae);
+		}
+	}
+
+	static
+	private class FingerprintHolder {
+
+		private static final String FINGERPRINT = calculateFingerprint();
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import NCatBoostFbs.TCtrFeature;
+import NCatBoostFbs.TCtrValueTable;
+import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TObliviousTrees;
+
+/**
+ * <p>
+ * A pre-flight estimate of the size of a conversion result, and of the heap that is needed for producing it.
+ * </p>
+ *
+ * <p>
+ * The estimate is based on tree sizes and CTR value table sizes, and is an upper bound with respect to tree pruning and compaction.
+ * Heap byte counts include the CBM payload when it is held on heap (eg. when it was read from a gzip-compressed file or from a stream), but not when it is memory-mapped.
+ * Byte counts are approximate.
+ * </p>
+ *
+ * @see CatBoostUtil#estimateConversion(CatBoostModel, Map)
+ * @see HasCatBoostOptions#OPTION_MEMORY_BUDGET
+ */
+public class ConversionEstimate {
+
+	private boolean lookupTable = false;
+
+	private int numTrees = 0;
+
+	private long numLeafValues = 0;
+
+	private long numNodes = 0;
+
+	private long numCtrRows = 0;
+
+	private long payloadHeapBytes = 0;
+
+	private long pmmlBytes = 0;
+
+	private long heapBytes = 0;
+
+	private long documentHeapBytes = 0;
+
+
+	private ConversionEstimate(){
+	}
+
+	@Override
+	public String toString(){
+		return "Estimated " + getNumTrees() + " trees, " + getNumLeafValues() + " leaf values, " + getNumNodes() + " nodes, " + getNumCtrRows() + " CTR rows, " + getPmmlBytes() + " PMML bytes, " + getHeapBytes() + " heap bytes (" + getDocumentHeapBytes() + " heap bytes for an in-memory PMML document), including " + getPayloadHeapBytes() + " heap bytes of CBM payload";
+	}
+
+	/**
+	 * @return <code>true</code> if trees are encoded as leaf index computations followed by leaf value lookups.
+	 */
+	public boolean isLookupTable(){
+		return this.lookupTable;
+	}
+
+	public int getNumTrees(){
+		return this.numTrees;
+	}
+
+	/**
+	 * @return The number of leaf values across all trees and dimensions.
+	 */
+	public long getNumLeafValues(){
+		return this.numLeafValues;
+	}
+
+	/**
+	 * @return The number of tree model nodes, or <code>0</code> if trees are encoded as lookups.
+	 */
+	public long getNumNodes(){
+		return this.numNodes;
+	}
+
+	/**
+	 * @return The number of CTR value table entries, which is an upper bound for the number of rows in CTR feature lookups.
+	 */
+	public long getNumCtrRows(){
+		return this.numCtrRows;
+	}
+
+	/**
+	 * @return The size of the CBM payload (model core and CTR value tables) that is held on heap, or <code>0</code> if it is memory-mapped.
+	 */
+	public long getPayloadHeapBytes(){
+		return this.payloadHeapBytes;
+	}
+
+	public long getPmmlBytes(){
+		return this.pmmlBytes;
+	}
+
+	/**
+	 * @return The peak heap usage of writing a PMML document, where tree model nodes are generated one tree at a time.
+	 *
+	 * @see CatBoostUtil#writePMML(CatBoostModel, Map, java.io.OutputStream)
+	 */
+	public long getHeapBytes(){
+		return this.heapBytes;
+	}
+
+	/**
+	 * @return The peak heap usage of encoding an in-memory PMML document.
+	 *
+	 * @see CatBoostUtil#encodePMML(CatBoostModel, Map)
+	 */
+	public long getDocumentHeapBytes(){
+		return this.documentHeapBytes;
+	}
+
+	static
+	ConversionEstimate create(CatBoostModel catBoostModel, Map<String, ?> options){
+		TModelCore modelCore = catBoostModel.getModelCore();
+
+		TObliviousTrees obliviousTrees = modelCore.ObliviousTrees();
+
+		Number ntreeEnd = (Number)options.get(HasCatBoostOptions.OPTION_NTREE_END);
+		Number parallelism = (Number)options.get(HasCatBoostOptions.OPTION_PARALLELISM);
+
+		int numDimensions = obliviousTrees.ApproxDimension();
+
+		boolean lookupTable = CatBoostUtil.resolveLookupTable(options, numDimensions);
+
+		int numTrees = obliviousTrees.TreeSizesLength();
+
+		if(ntreeEnd != null && ntreeEnd.intValue() > 0){
+			numTrees = Math.min(numTrees, ntreeEnd.intValue());
+		}
+
+		long numLevels = 0;
+		long numLeaves = 0;
+		long numNodes = 0;
+		long maxTreeNodes = 0;
+
+		for(int tree = 0; tree < numTrees; tree++){
+			int treeSize = obliviousTrees.TreeSizes(tree);
+
+			long treeNodes = (2L << treeSize) - 1;
+
+			numLevels += treeSize;
+			numLeaves += (1L << treeSize);
+			numNodes += treeNodes;
+
+			maxTreeNodes = Math.max(maxTreeNodes, treeNodes);
+		}
+
+		ConversionEstimate result = new ConversionEstimate();
+		result.lookupTable = lookupTable;
+		result.numTrees = numTrees;
+		result.numLeafValues = (numLeaves * numDimensions);
+
+		if(lookupTable){
+			long numRows = (numLeaves * numDimensions);
+
+			long lookupHeapBytes = (numRows * ConversionEstimate.ROW_HEAP_BYTES) + (numLevels * ConversionEstimate.LEVEL_HEAP_BYTES);
+
+			result.numNodes = 0;
+			result.pmmlBytes = ConversionEstimate.BASE_PMML_BYTES + (numRows * ConversionEstimate.ROW_PMML_BYTES) + (numLevels * ConversionEstimate.LEVEL_PMML_BYTES);
+			result.heapBytes = ConversionEstimate.BASE_HEAP_BYTES + lookupHeapBytes;
+			result.documentHeapBytes = result.heapBytes;
+		} else
+
+		{
+			// Tree models whose node structures are generated ahead of time, plus the one that is being marshalled
+			int numInFlightTrees = (parallelism != null && parallelism.intValue() > 1 ? (2 * parallelism.intValue()) + 1 : 1);
+
+			long stubHeapBytes = (numTrees * (long)numDimensions * ConversionEstimate.STUB_HEAP_BYTES);
+
+			result.numNodes = (numNodes * numDimensions);
+			result.pmmlBytes = ConversionEstimate.BASE_PMML_BYTES + (result.numNodes * ConversionEstimate.NODE_PMML_BYTES);
+			result.heapBytes = ConversionEstimate.BASE_HEAP_BYTES + stubHeapBytes + (Math.min(numInFlightTrees, numTrees * (long)numDimensions) * maxTreeNodes * ConversionEstimate.NODE_HEAP_BYTES);
+			result.documentHeapBytes = ConversionEstimate.BASE_HEAP_BYTES + stubHeapBytes + (result.numNodes * ConversionEstimate.NODE_HEAP_BYTES);
+		}
+
+		long numCtrRows = 0;
+
+		// The model core may have been loaded without CTR value tables
+		if(!(catBoostModel.getCtrValueTables()).isEmpty()){
+
+			for(int i = 0; i < obliviousTrees.CtrFeaturesLength(); i++){
+				TCtrFeature ctrFeature = obliviousTrees.CtrFeatures(i);
+
+				TCtrValueTable ctrValueTable = catBoostModel.getCtrValueTable((ctrFeature.Ctr()).Base());
+
+				numCtrRows += CtrUtil.countIndexHashes(ctrValueTable);
+			}
+		}
+
+		long payloadHeapBytes = 0;
+
+		Set<ByteBuffer> byteBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+		byteBuffers.add(modelCore.getByteBuffer());
+
+		for(TCtrValueTable ctrValueTable : catBoostModel.getCtrValueTables()){
+			byteBuffers.add(ctrValueTable.getByteBuffer());
+		}
+
+		for(ByteBuffer byteBuffer : byteBuffers){
+
+			// Memory-mapped buffers are direct
+			if(!byteBuffer.isDirect()){
+				payloadHeapBytes += byteBuffer.capacity();
+			}
+		}
+
+		long ctrHeapBytes = payloadHeapBytes + (numCtrRows * ConversionEstimate.ROW_HEAP_BYTES);
+
+		result.numCtrRows = numCtrRows;
+		result.payloadHeapBytes = payloadHeapBytes;
+		result.pmmlBytes += (numCtrRows * ConversionEstimate.ROW_PMML_BYTES);
+		result.heapBytes += ctrHeapBytes;
+		result.documentHeapBytes += ctrHeapBytes;
+
+		return result;
+	}
+
+	// Per-element costs, as measured on bundled models with some headroom
+	private static final long BASE_PMML_BYTES = 4 * 1024;
+	private static final long NODE_PMML_BYTES = 150;
+	private static final long ROW_PMML_BYTES = 150;
+	private static final long LEVEL_PMML_BYTES = 200;
+
+	private static final long BASE_HEAP_BYTES = 256 * 1024;
+	private static final long NODE_HEAP_BYTES = 128;
+	private static final long ROW_HEAP_BYTES = 256;
+	private static final long LEVEL_HEAP_BYTES = 512;
+	private static final long STUB_HEAP_BYTES = 1024;
+}
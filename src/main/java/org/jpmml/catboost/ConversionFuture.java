@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ * A future that interrupts its running computation when it is cancelled.
+ * </p>
+ */
+class ConversionFuture<V> extends CompletableFuture<V> {
+
+	private Thread thread = null;
+
+
+	void run(Callable<V> callable){
+
+		synchronized(this){
+
+			if(isDone()){
+				return;
+			}
+
+			this.thread = Thread.currentThread();
+		}
+
+		try {
+			complete(callable.call());
+		} catch(Throwable t){
+			completeExceptionally(t);
+		} finally {
+
+			synchronized(this){
+				this.thread = null;
+			}
+
+			// Clear an interrupt that was delivered after the computation finished
+			Thread.interrupted();
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning){
+		boolean result = super.cancel(mayInterruptIfRunning);
+
+		if(result && mayInterruptIfRunning){
+
+			synchronized(this){
+
+				if(this.thread != null){
+					this.thread.interrupt();
+				}
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.dmg.pmml.Field;
+import org.dmg.pmml.Predicate;
+import org.dmg.pmml.tree.Node;
+
+/**
+ * <p>
+ * Timing and size metrics of a conversion.
+ * </p>
+ *
+ * <p>
+ * Every phase is also reported as a JDK Flight Recorder event (where available),
+ * so that library users can profile conversions without collecting metrics themselves.
+ * </p>
+ */
+public class ConversionMetrics {
+
+	private Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+	private int numTrees = 0;
+
+	private long numNodes = 0;
+
+	private long numPredicates = 0;
+
+	private long numFields = 0;
+
+	private long outputBytes = 0;
+
+
+	public ConversionMetrics(){
+	}
+
+	/**
+	 * @return The cumulative duration of each phase in nanoseconds, in the order in which the phases were first entered.
+	 */
+	public Map<String, Long> getPhaseNanos(){
+		return Collections.unmodifiableMap(this.phaseNanos);
+	}
+
+	public int getNumTrees(){
+		return this.numTrees;
+	}
+
+	void setNumTrees(int numTrees){
+		this.numTrees = numTrees;
+	}
+
+	public long getNumNodes(){
+		return this.numNodes;
+	}
+
+	public long getNumPredicates(){
+		return this.numPredicates;
+	}
+
+	public long getNumFields(){
+		return this.numFields;
+	}
+
+	public long getOutputBytes(){
+		return this.outputBytes;
+	}
+
+	void setOutputBytes(long outputBytes){
+		this.outputBytes = outputBytes;
+	}
+
+	/**
+	 * <p>
+	 * Writes the metrics as a JSON object. Phase durations are given in milliseconds.
+	 * </p>
+	 */
+	public void writeJson(OutputStream os) throws IOException {
+		Map<String, Object> phases = new LinkedHashMap<>();
+
+		for(Map.Entry<String, Long> entry : this.phaseNanos.entrySet()){
+			phases.put(entry.getKey(), entry.getValue() / 1e6);
+		}
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("phases", phases);
+		result.put("trees", getNumTrees());
+		result.put("nodes", getNumNodes());
+		result.put("predicates", getNumPredicates());
+		result.put("fields", getNumFields());
+		result.put("outputBytes", getOutputBytes());
+
+		ObjectMapper objectMapper = new ObjectMapper()
+			.enable(SerializationFeature.INDENT_OUTPUT);
+
+		objectMapper.writeValue(os, result);
+	}
+
+	/**
+	 * <p>
+	 * Counts a PMML class model object that is part of the conversion result.
+	 * </p>
+	 */
+	void count(Object object){
+
+		if(object instanceof Node){
+			this.numNodes++;
+		} else
+
+		if(object instanceof Predicate){
+			this.numPredicates++;
+		} else
+
+		if(object instanceof Field){
+			this.numFields++;
+		}
+	}
+
+	Phase startPhase(String name){
+		return new Phase(name);
+	}
+
+	/**
+	 * <p>
+	 * Commits the conversion summary event.
+	 * </p>
+	 */
+	void finish(){
+
+		if(ConversionMetrics.EVENT_FACTORY != null){
+			ConversionMetrics.EVENT_FACTORY.commitConversion(this);
+		}
+	}
+
+	/**
+	 * <p>
+	 * A timed conversion phase.
+	 * Every phase must be ended exactly once, typically in a <code>finally</code> block.
+	 * </p>
+	 */
+	class Phase {
+
+		private String name = null;
+
+		private long begin = 0L;
+
+		private Object event = null;
+
+
+		private Phase(String name){
+			this.name = name;
+
+			if(ConversionMetrics.EVENT_FACTORY != null){
+				this.event = ConversionMetrics.EVENT_FACTORY.beginPhase(name);
+			}
+
+			this.begin = System.nanoTime();
+		}
+
+		void end(){
+			long end = System.nanoTime();
+
+			ConversionMetrics.this.phaseNanos.merge(this.name, (end - this.begin), Long::sum);
+
+			if(this.event != null){
+				ConversionMetrics.EVENT_FACTORY.commitPhase(this.event);
+			}
+		}
+	}
+
+	public static final String PHASE_READ = "read";
+
+	public static final String PHASE_PARSE_MAP = "parseMap";
+
+	public static final String PHASE_ENCODE_FEATURES = "encodeFeatures";
+
+	public static final String PHASE_ENCODE_TREES = "encodeTrees";
+
+	public static final String PHASE_MARSHAL = "marshal";
+
+	// The event factory is absent if the build JDK did not provide the jdk.jfr API, and it cannot be linked if the runtime does not provide it
+	private static final ConversionEventFactory EVENT_FACTORY;
+
+	static {
+		ConversionEventFactory eventFactory;
+
+		try {
+			Class<? extends ConversionEventFactory> clazz = (Class.forName("org.jpmml.catboost.JfrConversionEventFactory")).asSubclass(ConversionEventFactory.class);
+
+			eventFactory = clazz.getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError e){
+			eventFactory = null;
+		}
+
+		EVENT_FACTORY = eventFactory;
+	}
+}
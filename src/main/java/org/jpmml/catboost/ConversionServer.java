@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * A long-running conversion service.
+ * </p>
+ *
+ * <ul>
+ *   <li><code>POST /convert</code> takes a CBM file as the request body, and returns a PMML file.
+ *   Conversion options are passed as query parameters (eg. <code>/convert?compact=true</code>), and override the default options of the server.</li>
+ *   <li><code>GET /stats</code> returns request counts, throughput and latency statistics as a JSON object.</li>
+ * </ul>
+ */
+public class ConversionServer {
+
+	private InetSocketAddress address = null;
+
+	private int maxConcurrency = 0;
+
+	private long maxRequestSize = 0L;
+
+	private Map<String, ?> defaultOptions = Collections.emptyMap();
+
+	private HttpServer server = null;
+
+	private ExecutorService executor = null;
+
+	private Semaphore permits = null;
+
+	private long startTime = 0L;
+
+	private AtomicLong converted = new AtomicLong();
+
+	private AtomicLong failed = new AtomicLong();
+
+	private AtomicLong rejected = new AtomicLong();
+
+	private AtomicLong bytesIn = new AtomicLong();
+
+	private AtomicLong bytesOut = new AtomicLong();
+
+	private LatencyReservoir latencies = new LatencyReservoir(1024);
+
+
+	public ConversionServer(InetSocketAddress address, int maxConcurrency, long maxRequestSize){
+		setAddress(address);
+
+		if(maxConcurrency < 1){
+			throw new IllegalArgumentException("Max concurrency " + maxConcurrency + " is not positive");
+		} // End if
+
+		if(maxRequestSize < 1L){
+			throw new IllegalArgumentException("Max request size " + maxRequestSize + " is not positive");
+		}
+
+		this.maxConcurrency = maxConcurrency;
+		this.maxRequestSize = maxRequestSize;
+	}
+
+	public void start() throws IOException {
+
+		if(this.server != null){
+			throw new IllegalStateException();
+		}
+
+		HttpServer server = HttpServer.create(this.address, 0);
+		server.createContext("/convert", this::handleConvert);
+		server.createContext("/stats", this::handleStats);
+
+		// Spare threads keep the stats endpoint responsive, and let busy requests be rejected promptly
+		this.executor = Executors.newFixedThreadPool(this.maxConcurrency + 2);
+		this.permits = new Semaphore(this.maxConcurrency);
+
+		server.setExecutor(this.executor);
+		server.start();
+
+		this.server = server;
+		this.startTime = System.nanoTime();
+	}
+
+	public void stop(int delay){
+
+		if(this.server == null){
+			throw new IllegalStateException();
+		}
+
+		this.server.stop(delay);
+		this.server = null;
+
+		this.executor.shutdownNow();
+		this.executor = null;
+	}
+
+	/**
+	 * @return The address that the server is listening on.
+	 */
+	public InetSocketAddress getBoundAddress(){
+
+		if(this.server == null){
+			throw new IllegalStateException();
+		}
+
+		return this.server.getAddress();
+	}
+
+	public Map<String, Object> getStats(){
+		double uptime = (System.nanoTime() - this.startTime) / 1e9;
+
+		long converted = this.converted.get();
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("uptime_seconds", uptime);
+		result.put("converted", converted);
+		result.put("failed", this.failed.get());
+		result.put("rejected", this.rejected.get());
+		result.put("active", this.maxConcurrency - this.permits.availablePermits());
+		result.put("bytes_in", this.bytesIn.get());
+		result.put("bytes_out", this.bytesOut.get());
+		result.put("throughput_per_second", (uptime > 0d ? converted / uptime : 0d));
+		result.putAll(this.latencies.summarize());
+
+		return result;
+	}
+
+	private void handleConvert(HttpExchange exchange) throws IOException {
+		boolean aborted = false;
+
+		try {
+			if(!("POST").equals(exchange.getRequestMethod())){
+				sendText(exchange, 405, "Method not allowed");
+
+				return;
+			}
+
+			String contentLength = (exchange.getRequestHeaders()).getFirst("Content-Length");
+
+			long requestSize = -1L;
+
+			if(contentLength != null){
+
+				try {
+					requestSize = Long.parseLong(contentLength.trim());
+				} catch(NumberFormatException nfe){
+					this.rejected.incrementAndGet();
+
+					sendText(exchange, 400, "Invalid Content-Length " + contentLength);
+
+					return;
+				}
+			} // End if
+
+			if(requestSize > this.maxRequestSize){
+				this.rejected.incrementAndGet();
+
+				sendText(exchange, 413, "Request size exceeds " + this.maxRequestSize + " bytes");
+
+				return;
+			} // End if
+
+			if(!this.permits.tryAcquire()){
+				this.rejected.incrementAndGet();
+
+				(exchange.getResponseHeaders()).set("Retry-After", "1");
+
+				sendText(exchange, 503, "Too many concurrent conversions");
+
+				return;
+			}
+
+			AtomicBoolean released = new AtomicBoolean(false);
+
+			// The permit must be released before the response is completed, so that the client may follow up with another request right away
+			Runnable releasePermit = () -> {
+
+				if(released.compareAndSet(false, true)){
+					this.permits.release();
+				}
+			};
+
+			try {
+				convert(exchange, releasePermit);
+			} catch(IOException ioe){
+				// Leave the exchange open, so that the server closes the connection without terminating the chunked response body
+				aborted = true;
+
+				throw ioe;
+			} finally {
+				releasePermit.run();
+			}
+		} finally {
+
+			if(!aborted){
+				exchange.close();
+			}
+		}
+	}
+
+	private void convert(HttpExchange exchange, Runnable releasePermit) throws IOException {
+		long begin = System.nanoTime();
+
+		byte[] cbmBytes;
+
+		try(InputStream is = ByteStreams.limit(exchange.getRequestBody(), this.maxRequestSize + 1)){
+			cbmBytes = ByteStreams.toByteArray(is);
+		}
+
+		if(cbmBytes.length > this.maxRequestSize){
+			this.rejected.incrementAndGet();
+
+			releasePermit.run();
+
+			sendText(exchange, 413, "Request size exceeds " + this.maxRequestSize + " bytes");
+
+			return;
+		}
+
+		this.bytesIn.addAndGet(cbmBytes.length);
+
+		ResponseOutputStream os = new ResponseOutputStream(exchange, "application/xml");
+
+		try {
+			Map<String, Object> options = new LinkedHashMap<>(this.defaultOptions);
+			options.putAll(parseOptions(exchange.getRequestURI().getRawQuery()));
+
+			CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(new ByteArrayInputStream(cbmBytes));
+
+			CatBoostUtil.writePMML(catBoostModel, options, os);
+
+			releasePermit.run();
+
+			os.close();
+		} catch(Exception e){
+			this.failed.incrementAndGet();
+
+			releasePermit.run();
+
+			// The status line has been sent already
+			if(os.isCommitted()){
+				throw new IOException("Conversion failed after the response was committed", e);
+			}
+
+			sendText(exchange, (e instanceof IllegalArgumentException || e instanceof IOException) ? 400 : 500, String.valueOf(e));
+
+			return;
+		}
+
+		this.converted.incrementAndGet();
+		this.bytesOut.addAndGet(os.getCount());
+
+		this.latencies.add(System.nanoTime() - begin);
+	}
+
+	private void handleStats(HttpExchange exchange) throws IOException {
+
+		try {
+			ObjectMapper objectMapper = new ObjectMapper();
+
+			byte[] bytes = objectMapper.writeValueAsBytes(getStats());
+
+			(exchange.getResponseHeaders()).set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, bytes.length);
+
+			try(OutputStream os = exchange.getResponseBody()){
+				os.write(bytes);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	public InetSocketAddress getAddress(){
+		return this.address;
+	}
+
+	private void setAddress(InetSocketAddress address){
+		this.address = address;
+	}
+
+	public int getMaxConcurrency(){
+		return this.maxConcurrency;
+	}
+
+	public long getMaxRequestSize(){
+		return this.maxRequestSize;
+	}
+
+	public Map<String, ?> getDefaultOptions(){
+		return this.defaultOptions;
+	}
+
+	/**
+	 * @param defaultOptions Conversion options that apply unless they are overridden by query parameters.
+	 */
+	public void setDefaultOptions(Map<String, ?> defaultOptions){
+		this.defaultOptions = Objects.requireNonNull(defaultOptions);
+	}
+
+	static
+	private void sendText(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+
+		(exchange.getResponseHeaders()).set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+
+		try(OutputStream os = exchange.getResponseBody()){
+			os.write(bytes);
+		}
+	}
+
+	static
+	Map<String, ?> parseOptions(String query) throws IOException {
+		Map<String, Object> result = new LinkedHashMap<>();
+
+		if(query == null || query.isEmpty()){
+			return result;
+		}
+
+		for(String parameter : query.split("&")){
+			int index = parameter.indexOf('=');
+
+			String name = URLDecoder.decode(index > -1 ? parameter.substring(0, index) : parameter, "UTF-8");
+			String value = URLDecoder.decode(index > -1 ? parameter.substring(index + 1) : "true", "UTF-8");
+
+			switch(name){
+				case HasCatBoostOptions.OPTION_BINARIZE:
+				case HasCatBoostOptions.OPTION_COMPACT:
+				case HasCatBoostOptions.OPTION_LOOKUP_TABLE:
+				case HasCatBoostOptions.OPTION_MEMORY_BUDGET_STREAMING_FALLBACK:
+				case HasCatBoostOptions.OPTION_SHARED_TREES:
+					result.put(name, Boolean.valueOf(value));
+					break;
+				case HasCatBoostOptions.OPTION_COMPACT_TOLERANCE:
+				case HasCatBoostOptions.OPTION_PRUNE_TOLERANCE:
+					result.put(name, Double.valueOf(value));
+					break;
+				case HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION:
+				case HasCatBoostOptions.OPTION_NTREE_END:
+					result.put(name, Integer.valueOf(value));
+					break;
+				case HasCatBoostOptions.OPTION_MEMORY_BUDGET:
+					result.put(name, Long.valueOf(value));
+					break;
+				case HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS:
+					result.put(name, Arrays.stream(value.split(",")).map(Integer::valueOf).collect(Collectors.toList()));
+					break;
+				default:
+					throw new IllegalArgumentException("Option " + name + " is not supported");
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * Keeps the latencies of the most recent conversions.
+	 * </p>
+	 */
+	static
+	private class LatencyReservoir {
+
+		private long[] values = null;
+
+		private int size = 0;
+
+		private int position = 0;
+
+		private long count = 0L;
+
+		private long max = 0L;
+
+
+		private LatencyReservoir(int capacity){
+			this.values = new long[capacity];
+		}
+
+		synchronized
+		public void add(long value){
+			this.values[this.position] = value;
+
+			this.position = (this.position + 1) % this.values.length;
+			this.size = Math.min(this.size + 1, this.values.length);
+
+			this.count++;
+			this.max = Math.max(this.max, value);
+		}
+
+		synchronized
+		public Map<String, Object> summarize(){
+			long[] values = Arrays.copyOf(this.values, this.size);
+
+			Arrays.sort(values);
+
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("latency_mean_ms", (values.length > 0 ? toMillis(Arrays.stream(values).sum() / (double)values.length) : 0d));
+			result.put("latency_p50_ms", toMillis(percentile(values, 0.50)));
+			result.put("latency_p99_ms", toMillis(percentile(values, 0.99)));
+			result.put("latency_max_ms", toMillis(this.max));
+
+			return result;
+		}
+
+		static
+		private double percentile(long[] values, double p){
+
+			if(values.length == 0){
+				return 0d;
+			}
+
+			int index = (int)Math.ceil(p * values.length) - 1;
+
+			return values[Math.max(index, 0)];
+		}
+
+		static
+		private double toMillis(double nanos){
+			return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Sends the response headers when the response body is first written to, and streams the response body in chunks.
+	 * Until then, the response can still be replaced with an error response.
+	 * </p>
+	 */
+	static
+	private class ResponseOutputStream extends OutputStream {
+
+		private HttpExchange exchange = null;
+
+		private String contentType = null;
+
+		private OutputStream os = null;
+
+		private long count = 0L;
+
+
+		private ResponseOutputStream(HttpExchange exchange, String contentType){
+			this.exchange = exchange;
+			this.contentType = contentType;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			commit().write(b);
+
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			commit().write(bytes, offset, length);
+
+			this.count += length;
+		}
+
+		@Override
+		public void flush() throws IOException {
+
+			if(this.os != null){
+				this.os.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			commit().close();
+		}
+
+		public boolean isCommitted(){
+			return (this.os != null);
+		}
+
+		public long getCount(){
+			return this.count;
+		}
+
+		private OutputStream commit() throws IOException {
+
+			if(this.os == null){
+				(this.exchange.getResponseHeaders()).set("Content-Type", this.contentType);
+
+				// A zero response length selects chunked transfer encoding
+				this.exchange.sendResponseHeaders(200, 0);
+
+				this.os = this.exchange.getResponseBody();
+			}
+
+			return this.os;
+		}
+	}
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import NCatBoostFbs.ECtrType;
+import NCatBoostFbs.TCtrValueTable;
+import NCatBoostFbs.TModelCtr;
+
+/**
+ * <p>
+ * Replicates the CTR calculations of the CatBoost model evaluator.
+ * All arithmetic is carried out in single precision, so that results compare to CTR borders exactly as in CatBoost.
+ * </p>
+ */
+class CtrUtil {
+
+	private CtrUtil(){
+	}
+
+	/**
+	 * @return A mapping from CTR hashes to CTR value indices.
+	 */
+	static
+	public Map<Long, Integer> parseIndexHashes(TCtrValueTable ctrValueTable){
+		ByteBuffer byteBuffer = ctrValueTable.IndexHashRawAsByteBuffer()
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		Map<Long, Integer> result = new HashMap<>();
+
+		// An open-addressing hash table of (ui64 hash, ui32 index) buckets
+		while(byteBuffer.remaining() >= CtrUtil.BUCKET_SIZE){
+			long hash = byteBuffer.getLong();
+			int index = byteBuffer.getInt();
+
+			if(hash != CtrUtil.EMPTY_HASH){
+				result.put(hash, index);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return The number of CTR hashes.
+	 *
+	 * @see #parseIndexHashes(TCtrValueTable)
+	 */
+	static
+	public int countIndexHashes(TCtrValueTable ctrValueTable){
+		ByteBuffer byteBuffer = ctrValueTable.IndexHashRawAsByteBuffer()
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		int result = 0;
+
+		for(int offset = byteBuffer.position(); offset + CtrUtil.BUCKET_SIZE <= byteBuffer.limit(); offset += CtrUtil.BUCKET_SIZE){
+			long hash = byteBuffer.getLong(offset);
+
+			if(hash != CtrUtil.EMPTY_HASH){
+				result++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return CTR values, indexed by CTR value index.
+	 */
+	static
+	public float[] calculateCtrValues(TModelCtr ctr, TCtrValueTable ctrValueTable){
+		ByteBuffer byteBuffer = ctrValueTable.CTRBlobAsByteBuffer()
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		byte ctrType = (ctr.Base()).CtrType();
+
+		switch(ctrType){
+			case ECtrType.Borders:
+			case ECtrType.Buckets:
+				{
+					IntBuffer intBuffer = byteBuffer.asIntBuffer();
+
+					int targetClassesCount = ctrValueTable.TargetClassesCount();
+					int targetBorderIdx = ctr.TargetBorderIdx();
+
+					float[] result = new float[intBuffer.remaining() / targetClassesCount];
+
+					for(int i = 0; i < result.length; i++){
+						int offset = (i * targetClassesCount);
+
+						int goodCount = 0;
+						int totalCount = 0;
+
+						if(ctrType == ECtrType.Buckets){
+							goodCount = intBuffer.get(offset + targetBorderIdx);
+
+							for(int classId = 0; classId < targetClassesCount; classId++){
+								totalCount += intBuffer.get(offset + classId);
+							}
+						} else
+
+						{
+							for(int classId = 0; classId <= targetBorderIdx; classId++){
+								totalCount += intBuffer.get(offset + classId);
+							}
+
+							for(int classId = targetBorderIdx + 1; classId < targetClassesCount; classId++){
+								goodCount += intBuffer.get(offset + classId);
+							}
+
+							totalCount += goodCount;
+						}
+
+						result[i] = calculate(ctr, goodCount, totalCount);
+					}
+
+					return result;
+				}
+			case ECtrType.BinarizedTargetMeanValue:
+			case ECtrType.FloatTargetMeanValue:
+				{
+					float[] result = new float[byteBuffer.remaining() / (4 + 4)];
+
+					for(int i = 0; i < result.length; i++){
+						float sum = byteBuffer.getFloat();
+						int count = byteBuffer.getInt();
+
+						result[i] = calculate(ctr, sum, count);
+					}
+
+					return result;
+				}
+			case ECtrType.Counter:
+			case ECtrType.FeatureFreq:
+				{
+					IntBuffer intBuffer = byteBuffer.asIntBuffer();
+
+					int denominator = ctrValueTable.CounterDenominator();
+
+					float[] result = new float[intBuffer.remaining()];
+
+					for(int i = 0; i < result.length; i++){
+						result[i] = calculate(ctr, intBuffer.get(i), denominator);
+					}
+
+					return result;
+				}
+			default:
+				throw new IllegalArgumentException("CTR type " + ECtrType.name(ctrType) + " is not supported");
+		}
+	}
+
+	/**
+	 * @return The CTR value of a CTR hash that is not present in the CTR value table.
+	 */
+	static
+	public float calculateEmptyCtrValue(TModelCtr ctr, TCtrValueTable ctrValueTable){
+		byte ctrType = (ctr.Base()).CtrType();
+
+		switch(ctrType){
+			case ECtrType.Counter:
+			case ECtrType.FeatureFreq:
+				return calculate(ctr, 0f, ctrValueTable.CounterDenominator());
+			default:
+				return calculate(ctr, 0f, 0f);
+		}
+	}
+
+	static
+	public long calculateHash(long left, long right){
+		return CtrUtil.MAGIC_MULT * (left + CtrUtil.MAGIC_MULT * right);
+	}
+
+	/**
+	 * @return The left operand of {@link #calculateHash(long, long)}.
+	 */
+	static
+	public long invertHash(long hash, long right){
+		return (hash * CtrUtil.MAGIC_MULT_INVERSE) - (CtrUtil.MAGIC_MULT * right);
+	}
+
+	/**
+	 * @param valueHashes The candidate value hashes of every component of a feature combination.
+	 *
+	 * @return The chained hash of the specified combination of value indices.
+	 */
+	static
+	public long calculateHash(List<long[]> valueHashes, int[] combination){
+		long result = 0L;
+
+		for(int i = 0; i < combination.length; i++){
+			result = calculateHash(result, (valueHashes.get(i))[combination[i]]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * Finds all combinations of candidate values whose chained hash is one of the specified hashes.
+	 * </p>
+	 *
+	 * <p>
+	 * The hash function is invertible, so combinations are matched in the middle.
+	 * Leading components are enumerated forward from the zero hash, and trailing components are peeled off backward from every specified hash.
+	 * The split point is chosen so that the number of hash calculations is minimal.
+	 * Combinations that cannot have one of the specified hashes are never materialized in full.
+	 * </p>
+	 *
+	 * @param valueHashes The candidate value hashes of every component of a feature combination.
+	 *
+	 * @return Combinations of value indices, in lexicographic order.
+	 */
+	static
+	public List<int[]> findCombinations(List<long[]> valueHashes, Collection<Long> hashes){
+		int numComponents = valueHashes.size();
+
+		int split = 0;
+
+		double minCost = Double.POSITIVE_INFINITY;
+
+		for(int i = 0; i <= numComponents; i++){
+			double forwardCost = 1d;
+			double backwardCost = hashes.size();
+
+			for(int j = 0; j < numComponents; j++){
+				int length = (valueHashes.get(j)).length;
+
+				if(j < i){
+					forwardCost *= length;
+				} else
+
+				{
+					backwardCost *= length;
+				}
+			}
+
+			double cost = (forwardCost + backwardCost);
+
+			if(cost < minCost){
+				split = i;
+
+				minCost = cost;
+			}
+		}
+
+		Map<Long, int[]> prefixes = new HashMap<>();
+
+		collectPrefixes(valueHashes, split, 0, 0L, new int[split], prefixes);
+
+		List<int[]> result = new ArrayList<>();
+
+		for(Long hash : hashes){
+			collectCombinations(valueHashes, split, numComponents - 1, hash, new int[numComponents], prefixes, result);
+		}
+
+		result.sort((left, right) -> {
+
+			for(int i = 0; i < numComponents; i++){
+				int diff = Integer.compare(left[i], right[i]);
+
+				if(diff != 0){
+					return diff;
+				}
+			}
+
+			return 0;
+		});
+
+		return result;
+	}
+
+	static
+	private void collectPrefixes(List<long[]> valueHashes, int split, int component, long hash, int[] prefix, Map<Long, int[]> result){
+
+		if(component == split){
+			result.putIfAbsent(hash, prefix.clone());
+
+			return;
+		}
+
+		long[] componentValueHashes = valueHashes.get(component);
+
+		for(int i = 0; i < componentValueHashes.length; i++){
+			prefix[component] = i;
+
+			collectPrefixes(valueHashes, split, component + 1, calculateHash(hash, componentValueHashes[i]), prefix, result);
+		}
+	}
+
+	static
+	private void collectCombinations(List<long[]> valueHashes, int split, int component, long hash, int[] combination, Map<Long, int[]> prefixes, List<int[]> result){
+
+		if(component < split){
+			int[] prefix = prefixes.get(hash);
+
+			if(prefix != null){
+				int[] match = combination.clone();
+
+				System.arraycopy(prefix, 0, match, 0, split);
+
+				result.add(match);
+			}
+
+			return;
+		}
+
+		long[] componentValueHashes = valueHashes.get(component);
+
+		for(int i = 0; i < componentValueHashes.length; i++){
+			combination[component] = i;
+
+			collectCombinations(valueHashes, split, component - 1, invertHash(hash, componentValueHashes[i]), combination, prefixes, result);
+		}
+	}
+
+	static
+	private long inverse(long value){
+		// Newton's iteration doubles the number of correct low-order bits, starting from three
+		long result = value;
+
+		for(int i = 0; i < 5; i++){
+			result *= (2L - value * result);
+		}
+
+		return result;
+	}
+
+	static
+	private float calculate(TModelCtr ctr, float countInClass, float totalCount){
+		float value = (countInClass + ctr.PriorNum()) / (totalCount + ctr.PriorDenom());
+
+		return (value + ctr.Shift()) * ctr.Scale();
+	}
+
+	private static final int BUCKET_SIZE = (8 + 4);
+
+	private static final long EMPTY_HASH = 0xffffffffffffffffL;
+
+	private static final long MAGIC_MULT = 0x4906ba494954cb65L;
+
+	private static final long MAGIC_MULT_INVERSE = inverse(CtrUtil.MAGIC_MULT);
+}
@@ -22,11 +22,11 @@ import org.dmg.pmml.FieldName;
 
 class FloatSplit extends Split {
 
-	private Float border = null;
+	private float border = Float.NaN;
 
 
-	FloatSplit(FieldName name, Float border){
-		super(name);
+	FloatSplit(FieldName name, float border){
+		super(name, border);
 
 		setBorder(border);
 	}
@@ -36,11 +36,11 @@ class FloatSplit extends Split {
 		return getName() + "@" + getBorder();
 	}
 
-	public Float getBorder(){
+	public float getBorder(){
 		return this.border;
 	}
 
-	private void setBorder(Float border){
+	private void setBorder(float border){
 		this.border = border;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import org.jpmml.converter.HasOptions;
+
+public interface HasCatBoostOptions extends HasOptions {
+
+	String OPTION_BINARIZE = "binarize";
+
+	String OPTION_CAT_FEATURE_VALUES = "cat_feature_values";
+
+	String OPTION_COMPACT = "compact";
+
+	String OPTION_COMPACT_TOLERANCE = "compact_tolerance";
+
+	String OPTION_LEAF_VALUE_PRECISION = "leaf_value_precision";
+
+	String OPTION_LOOKUP_TABLE = "lookup_table";
+
+	String OPTION_MEMORY_BUDGET = "memory_budget";
+
+	String OPTION_MEMORY_BUDGET_STREAMING_FALLBACK = "memory_budget_streaming_fallback";
+
+	String OPTION_NTREE_END = "ntree_end";
+
+	String OPTION_PARALLELISM = "parallelism";
+
+	String OPTION_PRUNE_TOLERANCE = "prune_tolerance";
+
+	String OPTION_SHARED_TREES = "shared_trees";
+
+	String OPTION_STAGED_NTREE_ENDS = "staged_ntree_ends";
+}
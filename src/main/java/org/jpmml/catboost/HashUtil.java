@@ -19,14 +19,43 @@
 package org.jpmml.catboost;
 
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * <p>
+ * CatBoost hashes categorical feature values by taking the low 32 bits of the CityHash64 (version 1.0) hash of their UTF-8 bytes.
+ * </p>
+ */
 public class HashUtil {
 
 	private HashUtil(){
 	}
 
 	static
-	public int hashCatFeature(String value) throws ReflectiveOperationException {
+	public int hashCatFeature(String value){
+		Integer result = HashUtil.cache.get(value);
+
+		if(result == null){
+			result = (int)cityHash64(value.getBytes(StandardCharsets.UTF_8));
+
+			HashUtil.cache.put(value, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * Hashes a categorical feature value using the CatBoost native library.
+	 * </p>
+	 *
+	 * @see #hashCatFeature(String)
+	 */
+	static
+	public int hashCatFeatureNative(String value) throws ReflectiveOperationException {
 		Class<?> nativeLibClass = Class.forName("ai.catboost.NativeLib");
 
 		Method handleMethod = nativeLibClass.getDeclaredMethod("handle");
@@ -43,4 +72,200 @@ public class HashUtil {
 
 		return hash[0];
 	}
-}
\ No newline at end of file
+
+	static
+	long cityHash64(byte[] s){
+		int len = s.length;
+
+		if(len <= 32){
+
+			if(len <= 16){
+				return hashLen0to16(s, len);
+			}
+
+			return hashLen17to32(s, len);
+		} else
+
+		if(len <= 64){
+			return hashLen33to64(s, len);
+		}
+
+		long x = fetch64(s, 0);
+		long y = fetch64(s, len - 16) ^ K1;
+		long z = fetch64(s, len - 56) ^ K0;
+
+		long[] v = weakHashLen32WithSeeds(s, len - 64, len, y);
+		long[] w = weakHashLen32WithSeeds(s, len - 32, len * K1, K0);
+
+		z += shiftMix(v[1]) * K1;
+		x = Long.rotateRight(z + x, 39) * K1;
+		y = Long.rotateRight(y, 33) * K1;
+
+		// Operate on 64-byte chunks, in the order of increasing offsets
+		int pos = 0;
+		int remaining = ((len - 1) & ~63);
+
+		do {
+			x = Long.rotateRight(x + y + v[0] + fetch64(s, pos + 16), 37) * K1;
+			y = Long.rotateRight(y + v[1] + fetch64(s, pos + 48), 42) * K1;
+			x ^= w[1];
+			y ^= v[0];
+			z = Long.rotateRight(z ^ w[0], 33);
+			v = weakHashLen32WithSeeds(s, pos, v[1] * K1, x + w[0]);
+			w = weakHashLen32WithSeeds(s, pos + 32, z + w[1], y);
+
+			long temp = z;
+			z = x;
+			x = temp;
+
+			pos += 64;
+			remaining -= 64;
+		} while(remaining != 0);
+
+		return hashLen16(hashLen16(v[0], w[0]) + shiftMix(y) * K1 + z, hashLen16(v[1], w[1]) + x);
+	}
+
+	static
+	private long hashLen0to16(byte[] s, int len){
+
+		if(len > 8){
+			long a = fetch64(s, 0);
+			long b = fetch64(s, len - 8);
+
+			return hashLen16(a, Long.rotateRight(b + len, len)) ^ b;
+		} else
+
+		if(len >= 4){
+			long a = fetch32(s, 0);
+
+			return hashLen16(len + (a << 3), fetch32(s, len - 4));
+		} else
+
+		if(len > 0){
+			int a = (s[0] & 0xff);
+			int b = (s[len >> 1] & 0xff);
+			int c = (s[len - 1] & 0xff);
+
+			long y = (a + (b << 8)) & 0xffffffffL;
+			long z = (len + (c << 2)) & 0xffffffffL;
+
+			return shiftMix((y * K2) ^ (z * K3)) * K2;
+		}
+
+		return K2;
+	}
+
+	static
+	private long hashLen17to32(byte[] s, int len){
+		long a = fetch64(s, 0) * K1;
+		long b = fetch64(s, 8);
+		long c = fetch64(s, len - 8) * K2;
+		long d = fetch64(s, len - 16) * K0;
+
+		return hashLen16(Long.rotateRight(a - b, 43) + Long.rotateRight(c, 30) + d, a + Long.rotateRight(b ^ K3, 20) - c + len);
+	}
+
+	static
+	private long hashLen33to64(byte[] s, int len){
+		long z = fetch64(s, 24);
+		long a = fetch64(s, 0) + (len + fetch64(s, len - 16)) * K0;
+		long b = Long.rotateRight(a + z, 52);
+		long c = Long.rotateRight(a, 37);
+		a += fetch64(s, 8);
+		c += Long.rotateRight(a, 7);
+		a += fetch64(s, 16);
+
+		long vf = a + z;
+		long vs = b + Long.rotateRight(a, 31) + c;
+
+		a = fetch64(s, 16) + fetch64(s, len - 32);
+		z = fetch64(s, len - 8);
+		b = Long.rotateRight(a + z, 52);
+		c = Long.rotateRight(a, 37);
+		a += fetch64(s, len - 24);
+		c += Long.rotateRight(a, 7);
+		a += fetch64(s, len - 16);
+
+		long wf = a + z;
+		long ws = b + Long.rotateRight(a, 31) + c;
+
+		long r = shiftMix((vf + ws) * K2 + (wf + vs) * K0);
+
+		return shiftMix(r * K0 + vs) * K2;
+	}
+
+	static
+	private long[] weakHashLen32WithSeeds(byte[] s, int pos, long a, long b){
+		long w = fetch64(s, pos);
+		long x = fetch64(s, pos + 8);
+		long y = fetch64(s, pos + 16);
+		long z = fetch64(s, pos + 24);
+
+		a += w;
+		b = Long.rotateRight(b + a + z, 21);
+
+		long c = a;
+
+		a += x;
+		a += y;
+		b += Long.rotateRight(a, 44);
+
+		return new long[]{a + z, b + c};
+	}
+
+	static
+	private long hashLen16(long u, long v){
+		long a = (u ^ v) * K_MUL;
+		a ^= (a >>> 47);
+
+		long b = (v ^ a) * K_MUL;
+		b ^= (b >>> 47);
+		b *= K_MUL;
+
+		return b;
+	}
+
+	static
+	private long shiftMix(long v){
+		return v ^ (v >>> 47);
+	}
+
+	static
+	private long fetch64(byte[] s, int pos){
+		long result = 0;
+
+		for(int i = 7; i >= 0; i--){
+			result = (result << 8) | (s[pos + i] & 0xff);
+		}
+
+		return result;
+	}
+
+	static
+	private long fetch32(byte[] s, int pos){
+		long result = 0;
+
+		for(int i = 3; i >= 0; i--){
+			result = (result << 8) | (s[pos + i] & 0xff);
+		}
+
+		return result;
+	}
+
+	private static final long K0 = 0xc3a5c85c97cb3127L;
+	private static final long K1 = 0xb492b66fbe98f273L;
+	private static final long K2 = 0x9ae16a3b2f90404fL;
+	private static final long K3 = 0xc949d7c7509e6557L;
+
+	private static final long K_MUL = 0x9ddfea08eb382d69L;
+
+	private static final int CACHE_SIZE = 1 << 16;
+
+	private static final Map<String, Integer> cache = Collections.synchronizedMap(new LinkedHashMap<String, Integer>(1024, 0.75f, true){
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> entry){
+			return size() > HashUtil.CACHE_SIZE;
+		}
+	});
+}
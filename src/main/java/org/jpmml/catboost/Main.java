@@ -21,15 +21,32 @@ package org.jpmml.catboost;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TCatFeature;
+import NCatBoostFbs.TObliviousTrees;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
-import org.dmg.pmml.PMML;
-import org.jpmml.model.MetroJAXBUtil;
 
 public class Main {
 
@@ -42,18 +59,222 @@ public class Main {
 
 	@Parameter (
 		names = {"--cbm-input"},
-		description = "CBM input file",
-		required = true
+		description = "CBM input file. Gzip-compressed files are detected automatically"
 	)
 	private File input = null;
 
 	@Parameter (
 		names = {"--pmml-output"},
-		description = "PMML output file",
-		required = true
+		description = "PMML output file"
 	)
 	private File output = null;
 
+	@Parameter (
+		names = {"--scorer-output"},
+		description = "Precompiled scorer output file. Holds the oblivious tree data of the model in a binary format, which can be loaded without XML parsing"
+	)
+	private File scorerOutput = null;
+
+	@Parameter (
+		names = {"--scorer-java-output"},
+		description = "Generated scorer Java source output file"
+	)
+	private File scorerJavaOutput = null;
+
+	@Parameter (
+		names = {"--scorer-class-output"},
+		description = "Generated scorer Java class output file. Requires a JDK"
+	)
+	private File scorerClassOutput = null;
+
+	@Parameter (
+		names = {"--scorer-class-name"},
+		description = "The fully qualified name of the generated scorer class"
+	)
+	private String scorerClassName = "GeneratedScorer";
+
+	@Parameter (
+		names = {"--scorer-class-release"},
+		description = "The Java SE release that the generated scorer class must run on"
+	)
+	private int scorerClassRelease = ScorerGenerator.DEFAULT_RELEASE;
+
+	@Parameter (
+		names = {"--pmml-output-gzip"},
+		description = "Compress PMML output files using gzip",
+		arity = 1
+	)
+	private boolean outputGzip = false;
+
+	@Parameter (
+		names = {"--pmml-output-gzip-threads"},
+		description = "Number of threads for compressing blocks of a PMML output file"
+	)
+	private int outputGzipThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter (
+		names = {"--cbm-input-dir"},
+		description = "Batch mode. CBM input directory. Converts all \".cbm\" and \".cbm.gz\" files in it"
+	)
+	private File inputDir = null;
+
+	@Parameter (
+		names = {"--cbm-manifest"},
+		description = "Batch mode. Manifest file, with one CBM input file (optionally followed by a tab and a PMML output file) per line"
+	)
+	private File manifest = null;
+
+	@Parameter (
+		names = {"--pmml-output-dir"},
+		description = "Batch mode. PMML output directory. Defaults to the directory of each CBM input file"
+	)
+	private File outputDir = null;
+
+	@Parameter (
+		names = {"--batch-threads"},
+		description = "Batch mode. Number of models that are converted concurrently"
+	)
+	private int batchThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter (
+		names = {"--server-port"},
+		description = "Server mode. HTTP port to listen on. CBM files are posted to \"/convert\", and statistics are available at \"/stats\""
+	)
+	private Integer serverPort = null;
+
+	@Parameter (
+		names = {"--server-host"},
+		description = "Server mode. Host address to listen on"
+	)
+	private String serverHost = "127.0.0.1";
+
+	@Parameter (
+		names = {"--server-max-concurrency"},
+		description = "Server mode. Max number of concurrent conversions. Further requests are rejected"
+	)
+	private int serverMaxConcurrency = Runtime.getRuntime().availableProcessors();
+
+	@Parameter (
+		names = {"--server-max-request-size"},
+		description = "Server mode. Max size of a CBM file, in bytes"
+	)
+	private long serverMaxRequestSize = 256L * 1024L * 1024L;
+
+	@Parameter (
+		names = {"--cache-dir"},
+		description = "Conversion cache directory. PMML files are cached by the digest of the CBM file, the converter version and the conversion options"
+	)
+	private File cacheDir = null;
+
+	@Parameter (
+		names = {"--cache-max-size"},
+		description = "Max total size of cached PMML files, in bytes. Least recently used files are evicted first"
+	)
+	private long cacheMaxSize = 1024L * 1024L * 1024L;
+
+	@Parameter (
+		names = {"--csv-input"},
+		description = "CSV input file. Categorical feature values are collected from it"
+	)
+	private File csvInput = null;
+
+	@Parameter (
+		names = {"--csv-separator"},
+		description = "CSV cell separator character"
+	)
+	private String csvSeparator = ",";
+
+	@Parameter (
+		names = {"--metrics"},
+		description = "Metrics output file. The duration of each conversion phase, and the size of the result, are written to it as JSON"
+	)
+	private File metricsOutput = null;
+
+	@Parameter (
+		names = {"--estimate"},
+		description = "Print the estimated number of nodes, PMML size and peak heap usage of the conversion, and exit"
+	)
+	private boolean estimate = false;
+
+	@Parameter (
+		names = {"--X-binarize"},
+		description = "Map every float feature to a bin index once, and let trees compare bin indices",
+		arity = 1
+	)
+	private boolean binarize = false;
+
+	@Parameter (
+		names = {"--X-compact"},
+		description = "Merge redundant splits and sibling leaves",
+		arity = 1
+	)
+	private Boolean compact = null;
+
+	@Parameter (
+		names = {"--X-compact-tolerance"},
+		description = "Max absolute difference between leaf values that are merged in compact mode"
+	)
+	private double compactTolerance = 0d;
+
+	@Parameter (
+		names = {"--X-leaf-value-precision"},
+		description = "Round leaf values to this many decimal places"
+	)
+	private Integer leafValuePrecision = null;
+
+	@Parameter (
+		names = {"--X-lookup-table"},
+		description = "Encode trees as leaf index computations followed by leaf value lookups",
+		arity = 1
+	)
+	private Boolean lookupTable = null;
+
+	@Parameter (
+		names = {"--X-memory-budget"},
+		description = "Max estimated peak heap usage of a conversion, in bytes"
+	)
+	private Long memoryBudget = null;
+
+	@Parameter (
+		names = {"--X-memory-budget-streaming-fallback"},
+		description = "Switch from lookup tables to tree models, whose nodes are generated one tree at a time while writing, if that fits the memory budget. The PMML output does not get smaller",
+		arity = 1
+	)
+	private boolean memoryBudgetStreamingFallback = false;
+
+	@Parameter (
+		names = {"--X-ntree-end"},
+		description = "Convert only the first N trees"
+	)
+	private Integer ntreeEnd = null;
+
+	@Parameter (
+		names = {"--X-parallelism"},
+		description = "Number of threads for encoding tree models. The output does not depend on it"
+	)
+	private int parallelism = 1;
+
+	@Parameter (
+		names = {"--X-prune-tolerance"},
+		description = "Drop trees whose leaf values are all smaller than this in absolute value"
+	)
+	private Double pruneTolerance = null;
+
+	@Parameter (
+		names = {"--X-shared-trees"},
+		description = "Evaluate the split structure of multi-class trees once, and look up leaf values per class. Defaults to true for multi-class models, unless the tree encoding is requested with --X-compact true or --X-lookup-table false",
+		arity = 1
+	)
+	private Boolean sharedTrees = null;
+
+	@Parameter (
+		names = {"--X-staged-ntree-ends"},
+		description = "Comma-separated list of tree counts N. The raw score of the first N trees is exposed as the \"partialSum(N)\" output field"
+	)
+	private List<Integer> stagedNtreeEnds = null;
+
+	private ConversionCache cache = null;
+
 	static
 	public void main(String... args) throws Exception {
 		Main main = new Main();
@@ -63,6 +284,10 @@ public class Main {
 
 		try {
 			commander.parse(args);
+
+			if(!main.help){
+				main.validate();
+			}
 		} catch(ParameterException pe){
 			StringBuilder sb = new StringBuilder();
 
@@ -86,20 +311,553 @@ public class Main {
 			System.exit(0);
 		}
 
-		main.run();
+		boolean success = main.run();
+
+		if(!success){
+			System.exit(1);
+		}
+	}
+
+	void validate(){
+		boolean batch = (this.inputDir != null || this.manifest != null);
+
+		if(this.csvSeparator.length() != 1){
+			throw new ParameterException("Option --csv-separator must be a single character");
+		} // End if
+
+		if(this.outputGzipThreads < 1){
+			throw new ParameterException("Option --pmml-output-gzip-threads must be positive");
+		} // End if
+
+		if(this.serverPort != null){
+
+			if(this.cacheDir != null){
+				throw new ParameterException("Option --cache-dir cannot be used in server mode");
+			} // End if
+
+			if(batch || this.input != null || this.output != null || hasScorerOutput() || this.csvInput != null || this.metricsOutput != null || this.estimate || this.outputGzip){
+				throw new ParameterException("Options --cbm-input, --pmml-output, --scorer-*-output, --pmml-output-gzip, --csv-input, --metrics, --estimate, --cbm-input-dir and --cbm-manifest cannot be used in server mode");
+			}
+		} else
+
+		if(batch){
+
+			if(this.inputDir != null && this.manifest != null){
+				throw new ParameterException("Options --cbm-input-dir and --cbm-manifest are mutually exclusive");
+			} // End if
+
+			if(this.input != null || this.output != null){
+				throw new ParameterException("Options --cbm-input and --pmml-output cannot be used in batch mode");
+			} // End if
+
+			if(hasScorerOutput() || this.csvInput != null || this.metricsOutput != null || this.estimate){
+				throw new ParameterException("Options --scorer-*-output, --csv-input, --metrics and --estimate cannot be used in batch mode");
+			} // End if
+
+			if(this.batchThreads < 1){
+				throw new ParameterException("Option --batch-threads must be positive");
+			}
+		} else
+
+		if(this.estimate){
+
+			if(this.input == null){
+				throw new ParameterException("Option --cbm-input is required");
+			}
+		} else
+
+		{
+			if(this.input == null || this.output == null){
+				throw new ParameterException("Options --cbm-input and --pmml-output are required");
+			} // End if
+
+			if(this.metricsOutput != null && this.cacheDir != null){
+				throw new ParameterException("Options --metrics and --cache-dir are mutually exclusive");
+			} // End if
+
+			// The native scorer keeps every leaf, so lossy leaf merging would make it disagree with the PMML
+			if(hasScorerOutput() && this.compactTolerance != 0d){
+				throw new ParameterException("Options --scorer-*-output and --X-compact-tolerance cannot be used together");
+			}
+		}
 	}
 
-	private void run() throws Exception {
-		TModelCore modelCore;
+	boolean run() throws Exception {
+		Map<String, Object> options = new LinkedHashMap<>();
+		options.put(HasCatBoostOptions.OPTION_BINARIZE, this.binarize);
+		options.put(HasCatBoostOptions.OPTION_COMPACT, this.compact);
+		options.put(HasCatBoostOptions.OPTION_COMPACT_TOLERANCE, this.compactTolerance);
+		options.put(HasCatBoostOptions.OPTION_LOOKUP_TABLE, this.lookupTable);
+		options.put(HasCatBoostOptions.OPTION_MEMORY_BUDGET, this.memoryBudget);
+		options.put(HasCatBoostOptions.OPTION_MEMORY_BUDGET_STREAMING_FALLBACK, this.memoryBudgetStreamingFallback);
+		options.put(HasCatBoostOptions.OPTION_PARALLELISM, this.parallelism);
+		options.put(HasCatBoostOptions.OPTION_PRUNE_TOLERANCE, this.pruneTolerance);
+		options.put(HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION, this.leafValuePrecision);
+		options.put(HasCatBoostOptions.OPTION_NTREE_END, this.ntreeEnd);
+		options.put(HasCatBoostOptions.OPTION_SHARED_TREES, this.sharedTrees);
+		options.put(HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS, this.stagedNtreeEnds);
+
+		if(this.cacheDir != null){
+			this.cache = new ConversionCache(this.cacheDir, this.cacheMaxSize);
+		} // End if
+
+		if(this.serverPort != null){
+			runServer(options);
+
+			return true;
+		} // End if
+
+		if(this.inputDir != null || this.manifest != null){
+			return runBatch(options);
+		} // End if
+
+		if(this.estimate){
+			ConversionEstimate estimate = CatBoostUtil.estimateConversion(CatBoostUtil.readCatBoostModel(this.input), options);
+
+			System.out.println(estimate);
 
-		try(InputStream is = new FileInputStream(this.input)){
-			modelCore = CatBoostUtil.readTModelCore(is);
+			return true;
 		}
 
-		PMML pmml = CatBoostUtil.encodePMML(modelCore);
+		ConversionMetrics metrics = new ConversionMetrics();
+
+		CatBoostModel catBoostModel = convert(this.input, this.output, this.csvInput, options, metrics);
+
+		if(this.metricsOutput != null){
+
+			try(OutputStream os = new FileOutputStream(this.metricsOutput)){
+				metrics.writeJson(os);
+			}
+		} // End if
+
+		boolean report = (this.pruneTolerance != null || this.leafValuePrecision != null);
+
+		// The model is loaded by the conversion itself, unless the PMML was served from the cache
+		if(catBoostModel == null && (hasScorerOutput() || report)){
+			catBoostModel = CatBoostUtil.readCatBoostModel(this.input);
+		} // End if
+
+		if(hasScorerOutput()){
+			writeScorer(new CatBoostScorer(catBoostModel.getModelCore(), options));
+		} // End if
+
+		if(report){
+			CompressionReport compressionReport = CatBoostUtil.reportCompression(catBoostModel.getModelCore(), options);
+
+			System.out.println(compressionReport);
+		}
+
+		return true;
+	}
+
+	private boolean hasScorerOutput(){
+		return (this.scorerOutput != null || this.scorerJavaOutput != null || this.scorerClassOutput != null);
+	}
+
+	private void writeScorer(CatBoostScorer scorer) throws IOException {
+
+		if(this.scorerOutput != null){
+
+			try(OutputStream os = new FileOutputStream(this.scorerOutput)){
+				CatBoostScorerUtil.writeScorer(scorer, os);
+			}
+		} // End if
+
+		if(this.scorerJavaOutput != null || this.scorerClassOutput != null){
+			String source = ScorerGenerator.generateSource(scorer, this.scorerClassName);
+
+			if(this.scorerJavaOutput != null){
+				Files.write(this.scorerJavaOutput.toPath(), source.getBytes(StandardCharsets.UTF_8));
+			} // End if
 
-		try(OutputStream os = new FileOutputStream(this.output)){
-			MetroJAXBUtil.marshalPMML(pmml, os);
+			if(this.scorerClassOutput != null){
+				Files.write(this.scorerClassOutput.toPath(), ScorerGenerator.compile(this.scorerClassName, source, this.scorerClassRelease));
+			}
 		}
 	}
-}
\ No newline at end of file
+
+	private void runServer(Map<String, Object> options) throws Exception {
+		ConversionServer server = new ConversionServer(new InetSocketAddress(this.serverHost, this.serverPort), this.serverMaxConcurrency, this.serverMaxRequestSize);
+		server.setDefaultOptions(options);
+		server.start();
+
+		CountDownLatch stopped = new CountDownLatch(1);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop(1);
+
+			stopped.countDown();
+		}));
+
+		System.out.println("Listening on " + server.getBoundAddress());
+
+		stopped.await();
+	}
+
+	private boolean runBatch(Map<String, Object> options) throws Exception {
+		String outputSuffix = (this.outputGzip ? ".pmml.gz" : ".pmml");
+
+		Map<File, File> files = (this.inputDir != null ? listFiles(this.inputDir, this.outputDir, outputSuffix) : readManifest(this.manifest, this.outputDir, outputSuffix));
+
+		checkOutputs(files);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.batchThreads, Math.max(files.size(), 1)));
+
+		Map<File, Future<?>> futures = new LinkedHashMap<>();
+
+		long begin = System.nanoTime();
+
+		try {
+			for(Map.Entry<File, File> entry : files.entrySet()){
+				File input = entry.getKey();
+				File output = entry.getValue();
+
+				futures.put(input, executor.submit(() -> {
+					convert(input, output, null, options, new ConversionMetrics());
+
+					return null;
+				}));
+			}
+
+			int failed = 0;
+
+			long bytes = 0;
+
+			for(Map.Entry<File, Future<?>> entry : futures.entrySet()){
+				File input = entry.getKey();
+				Future<?> future = entry.getValue();
+
+				try {
+					future.get();
+
+					bytes += input.length();
+				} catch(ExecutionException ee){
+					Throwable cause = ee.getCause();
+
+					System.err.println("Failed to convert " + input + ": " + cause);
+
+					failed++;
+				}
+			}
+
+			long end = System.nanoTime();
+
+			double seconds = (end - begin) / 1e9;
+
+			int converted = (files.size() - failed);
+
+			System.out.println(String.format(Locale.US, "Converted %d of %d models (%d failed) in %.3f s: %.2f models/s, %.2f MB/s", converted, files.size(), failed, seconds, converted / seconds, (bytes / (1024d * 1024d)) / seconds));
+
+			if(this.cache != null){
+				System.out.println(String.format(Locale.US, "Conversion cache: %d hits, %d misses", this.cache.getHits(), this.cache.getMisses()));
+			}
+
+			return (failed == 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The model, or <code>null</code> if the PMML was copied from the conversion cache without loading it.
+	 */
+	private CatBoostModel convert(File input, File output, File csvInput, Map<String, Object> options, ConversionMetrics metrics) throws Exception {
+		CatBoostModel catBoostModel = null;
+
+		if(csvInput != null){
+			catBoostModel = CatBoostUtil.readCatBoostModel(input, metrics);
+
+			options = new LinkedHashMap<>(options);
+			options.put(HasCatBoostOptions.OPTION_CAT_FEATURE_VALUES, readCatFeatureValues(catBoostModel, csvInput, this.csvSeparator.charAt(0)));
+		}
+
+		try(OutputStream os = createOutputStream(output)){
+
+			if(this.cache != null){
+				this.cache.writePMML(input, options, os);
+			} else
+
+			{
+				if(catBoostModel == null){
+					catBoostModel = CatBoostUtil.readCatBoostModel(input, metrics);
+				}
+
+				CatBoostUtil.writePMML(catBoostModel, options, os, metrics);
+			}
+		} catch(Exception e){
+			// Do not leave a truncated PMML file behind
+			output.delete();
+
+			throw e;
+		}
+
+		return catBoostModel;
+	}
+
+	private OutputStream createOutputStream(File output) throws IOException {
+		OutputStream result = new FileOutputStream(output);
+
+		if(this.outputGzip){
+			result = new ParallelGZIPOutputStream(result, this.outputGzipThreads);
+		}
+
+		return result;
+	}
+
+	static
+	private Map<File, File> listFiles(File inputDir, File outputDir, String outputSuffix){
+		File[] inputs = inputDir.listFiles((dir, name) -> name.endsWith(".cbm") || name.endsWith(".cbm.gz"));
+		if(inputs == null){
+			throw new IllegalArgumentException("Directory " + inputDir + " cannot be listed");
+		}
+
+		Arrays.sort(inputs);
+
+		Map<File, File> result = new LinkedHashMap<>();
+
+		for(File input : inputs){
+			result.put(input, toOutput(input, outputDir, outputSuffix));
+		}
+
+		return result;
+	}
+
+	static
+	private Map<File, File> readManifest(File manifest, File outputDir, String outputSuffix) throws IOException {
+		File baseDir = (manifest.getAbsoluteFile()).getParentFile();
+
+		Map<File, File> result = new LinkedHashMap<>();
+
+		List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+
+		for(String line : lines){
+			line = line.trim();
+
+			if(line.isEmpty() || line.startsWith("#")){
+				continue;
+			}
+
+			String[] cells = line.split("\t");
+
+			File input = resolve(baseDir, cells[0].trim());
+			File output;
+
+			if(cells.length > 1){
+				output = resolve(baseDir, cells[1].trim());
+			} else
+
+			{
+				output = toOutput(input, outputDir, outputSuffix);
+			}
+
+			if(result.containsKey(input)){
+				throw new IllegalArgumentException("Model " + input + " is listed more than once");
+			}
+
+			result.put(input, output);
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * Rejects batches where two models would be converted into the same output file concurrently.
+	 * </p>
+	 */
+	static
+	private void checkOutputs(Map<File, File> files){
+		Map<File, File> inputs = new LinkedHashMap<>();
+
+		for(Map.Entry<File, File> entry : files.entrySet()){
+			File input = entry.getKey();
+			File output = (entry.getValue()).getAbsoluteFile();
+
+			File prevInput = inputs.putIfAbsent(output, input);
+			if(prevInput != null){
+				throw new IllegalArgumentException("Models " + prevInput + " and " + input + " are converted to the same output file " + output);
+			}
+		}
+	}
+
+	static
+	private File resolve(File baseDir, String path){
+		File file = new File(path);
+
+		if(!file.isAbsolute()){
+			file = new File(baseDir, path);
+		}
+
+		return file;
+	}
+
+	static
+	private File toOutput(File input, File outputDir, String outputSuffix){
+		String name = input.getName();
+
+		if(name.endsWith(".gz")){
+			name = name.substring(0, name.length() - ".gz".length());
+		} // End if
+
+		if(name.endsWith(".cbm")){
+			name = name.substring(0, name.length() - ".cbm".length());
+		}
+
+		return new File(outputDir != null ? outputDir : input.getAbsoluteFile().getParentFile(), name + outputSuffix);
+	}
+
+	static
+	Map<String, Set<String>> readCatFeatureValues(CatBoostModel catBoostModel, File file, char separator) throws IOException {
+		TObliviousTrees obliviousTrees = (catBoostModel.getModelCore()).ObliviousTrees();
+
+		Map<String, Set<String>> result = new LinkedHashMap<>();
+
+		for(int i = 0; i < obliviousTrees.CatFeaturesLength(); i++){
+			TCatFeature catFeature = obliviousTrees.CatFeatures(i);
+
+			result.put(catFeature.FeatureId(), new LinkedHashSet<>());
+		}
+
+		try(LineNumberReader reader = new LineNumberReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))){
+			List<String> header = readRecord(reader, separator);
+			if(header == null){
+				throw new IllegalArgumentException("CSV input file is empty");
+			}
+
+			int[] columns = new int[result.size()];
+
+			int index = 0;
+
+			for(String name : result.keySet()){
+				int column = header.indexOf(name);
+				if(column < 0){
+					throw new IllegalArgumentException("Column " + name + " not found");
+				}
+
+				columns[index++] = column;
+			}
+
+			while(true){
+				int lineNumber = reader.getLineNumber() + 1;
+
+				List<String> cells = readRecord(reader, separator);
+				if(cells == null){
+					break;
+				} // End if
+
+				// Blank line
+				if(cells.size() == 1 && (cells.get(0)).isEmpty()){
+					continue;
+				} // End if
+
+				if(cells.size() != header.size()){
+					throw new IllegalArgumentException("Line " + lineNumber + " has " + cells.size() + " cells, expected " + header.size() + " cells");
+				}
+
+				index = 0;
+
+				for(Set<String> values : result.values()){
+					String value = cells.get(columns[index++]);
+
+					if(!value.isEmpty()){
+						values.add(value);
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * Reads one CSV record.
+	 * Quoted cells may contain separators, line breaks and doubled quote characters.
+	 * </p>
+	 *
+	 * @return The cells of the record, or <code>null</code> at the end of the input.
+	 */
+	static
+	List<String> readRecord(LineNumberReader reader, char separator) throws IOException {
+		String line = reader.readLine();
+		if(line == null){
+			return null;
+		}
+
+		List<String> result = new ArrayList<>();
+
+		StringBuilder sb = new StringBuilder();
+
+		boolean cellStart = true;
+		boolean quoted = false;
+
+		for(int i = 0; true; i++){
+
+			if(i == line.length()){
+
+				if(quoted){
+					line = reader.readLine();
+					if(line == null){
+						throw new IllegalArgumentException("Line " + reader.getLineNumber() + " ends inside a quoted cell");
+					}
+
+					sb.append('\n');
+
+					i = -1;
+
+					continue;
+				}
+
+				break;
+			}
+
+			char c = line.charAt(i);
+
+			if(quoted){
+
+				if(c == '"'){
+
+					if(i + 1 < line.length() && line.charAt(i + 1) == '"'){
+						sb.append(c);
+
+						i++;
+					} else
+
+					{
+						quoted = false;
+					}
+				} else
+
+				{
+					sb.append(c);
+				}
+			} else
+
+			{
+				if(c == '"' && cellStart){
+					quoted = true;
+				} else
+
+				if(c == separator){
+					result.add(sb.toString());
+
+					sb.setLength(0);
+
+					cellStart = true;
+
+					continue;
+				} else
+
+				{
+					sb.append(c);
+				}
+			}
+
+			cellStart = false;
+		}
+
+		result.add(sb.toString());
+
+		return result;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * <p>
+ * An offset-based view of one oblivious tree in one dimension.
+ * Splits, leaf values and leaf weights are read directly from the FlatBuffers arrays of the model core.
+ * </p>
+ */
+class ObliviousTreeView {
+
+	private IntBuffer treeSplits = null;
+
+	private int treeSplitsPtr = 0;
+
+	private int numLevels = 0;
+
+	private DoubleBuffer leafValues = null;
+
+	private int leafValuesPtr = 0;
+
+	private int numDimensions = 0;
+
+	private int dim = 0;
+
+	private DoubleBuffer leafWeights = null;
+
+	private int leafWeightsPtr = 0;
+
+	private Number leafValuePrecision = null;
+
+
+	ObliviousTreeView(IntBuffer treeSplits, int treeSplitsPtr, int numLevels, DoubleBuffer leafValues, int leafValuesPtr, int numDimensions, int dim, DoubleBuffer leafWeights, int leafWeightsPtr, Number leafValuePrecision){
+		this.treeSplits = treeSplits;
+		this.treeSplitsPtr = treeSplitsPtr;
+		this.numLevels = numLevels;
+		this.leafValues = leafValues;
+		this.leafValuesPtr = leafValuesPtr;
+		this.numDimensions = numDimensions;
+		this.dim = dim;
+		this.leafWeights = leafWeights;
+		this.leafWeightsPtr = leafWeightsPtr;
+		this.leafValuePrecision = leafValuePrecision;
+	}
+
+	public int getNumLevels(){
+		return this.numLevels;
+	}
+
+	public int getNumNodes(){
+		return (1 << this.numLevels);
+	}
+
+	/**
+	 * @return The binary feature index of the split at the specified depth.
+	 */
+	public int getSplit(int depth){
+		return this.treeSplits.get(this.treeSplitsPtr + depth);
+	}
+
+	/**
+	 * @return The leaf value, rounded to the leaf value precision.
+	 */
+	public double getLeafValue(int index){
+		double value = this.leafValues.get(this.leafValuesPtr + (index * this.numDimensions) + this.dim);
+
+		return CompressionUtil.roundLeafValue(value, this.leafValuePrecision);
+	}
+
+	public double getLeafWeight(int index){
+		return this.leafWeights.get(this.leafWeightsPtr + index);
+	}
+}
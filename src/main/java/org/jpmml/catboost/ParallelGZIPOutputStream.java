@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * <p>
+ * A gzip output stream that compresses fixed-size blocks of data in parallel.
+ * </p>
+ *
+ * <p>
+ * Every block is written out as an independent gzip member.
+ * Concatenated gzip members make up a valid gzip file, which can be decompressed using standard tools
+ * (including {@link java.util.zip.GZIPInputStream}).
+ * </p>
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+	private OutputStream os = null;
+
+	private ExecutorService executor = null;
+
+	private int blockSize = 0;
+
+	private int maxPendingBlocks = 0;
+
+	private byte[] block = null;
+
+	private int blockLength = 0;
+
+	private int numBlocks = 0;
+
+	private Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+	private boolean closed = false;
+
+
+	public ParallelGZIPOutputStream(OutputStream os, int threads){
+		this(os, threads, ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE);
+	}
+
+	public ParallelGZIPOutputStream(OutputStream os, int threads, int blockSize){
+
+		if(threads < 1){
+			throw new IllegalArgumentException("Thread count " + threads + " is not positive");
+		} // End if
+
+		if(blockSize < 1){
+			throw new IllegalArgumentException("Block size " + blockSize + " is not positive");
+		}
+
+		this.os = os;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("gzip-%d").setDaemon(true).build());
+		this.blockSize = blockSize;
+		// Bound the memory usage when the underlying stream is slower than compression
+		this.maxPendingBlocks = (2 * threads);
+
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+
+		this.block[this.blockLength++] = (byte)b;
+
+		if(this.blockLength == this.blockSize){
+			submitBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+
+		while(len > 0){
+			int count = Math.min(len, this.blockSize - this.blockLength);
+
+			System.arraycopy(b, off, this.block, this.blockLength, count);
+
+			this.blockLength += count;
+
+			off += count;
+			len -= count;
+
+			if(this.blockLength == this.blockSize){
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes out all submitted blocks.
+	 * The current partial block is kept, because compressing it separately would hurt the compression ratio.
+	 * </p>
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+
+		while(!this.pendingBlocks.isEmpty()){
+			writeBlock(this.pendingBlocks.removeFirst());
+		}
+
+		this.os.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		if(this.closed){
+			return;
+		}
+
+		try {
+			// An empty stream is still encoded as one (empty) gzip member
+			if(this.blockLength > 0 || this.numBlocks == 0){
+				submitBlock();
+			}
+
+			flush();
+		} finally {
+			this.closed = true;
+
+			this.executor.shutdownNow();
+
+			this.os.close();
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		byte[] data = this.block;
+		int length = this.blockLength;
+
+		this.block = new byte[this.blockSize];
+		this.blockLength = 0;
+
+		this.pendingBlocks.addLast(this.executor.submit(() -> compress(data, length)));
+
+		this.numBlocks++;
+
+		while(this.pendingBlocks.size() > this.maxPendingBlocks){
+			writeBlock(this.pendingBlocks.removeFirst());
+		}
+	}
+
+	private void writeBlock(Future<byte[]> futureBlock) throws IOException {
+		byte[] compressedBlock;
+
+		try {
+			compressedBlock = futureBlock.get();
+		} catch(ExecutionException ee){
+			throw new IOException(ee.getCause());
+		} catch(InterruptedException ie){
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException();
+		}
+
+		this.os.write(compressedBlock);
+	}
+
+	private void ensureOpen() throws IOException {
+
+		if(this.closed){
+			throw new IOException("Stream closed");
+		}
+	}
+
+	static
+	private byte[] compress(byte[] data, int length) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(length / 4, 64));
+
+		try(GZIPOutputStream gzipOs = new GZIPOutputStream(os, 64 * 1024)){
+			gzipOs.write(data, 0, length);
+		}
+
+		return os.toByteArray();
+	}
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * <p>
+ * Generates a specialized scorer class for a model.
+ * </p>
+ *
+ * <p>
+ * The leaf index computation of every tree is unrolled, with feature indices and borders as constants.
+ * Trees are grouped into methods that stay below the size limit of the JIT compiler.
+ * Leaf values are embedded as Base64-encoded string constants, which keeps the class initializer small.
+ * </p>
+ *
+ * <p>
+ * Compiling the generated source requires a JDK (ie. the system Java compiler).
+ * </p>
+ */
+public class ScorerGenerator {
+
+	private ScorerGenerator(){
+	}
+
+	/**
+	 * @param className The fully qualified name of the generated class.
+	 */
+	static
+	public String generateSource(CatBoostScorer scorer, String className){
+		return generateSource(scorer, className, ScorerGenerator.MAX_STATEMENTS_PER_METHOD);
+	}
+
+	static
+	String generateSource(CatBoostScorer scorer, String className, int maxStatementsPerMethod){
+		String lossFunctionType = scorer.getLossFunctionType();
+		List<String> featureNames = scorer.getFeatureNames();
+		int numDimensions = scorer.getNumDimensions();
+		int[] treeSizes = scorer.getTreeSizes();
+		int[] levelFeatures = scorer.getLevelFeatures();
+		float[] levelBorders = scorer.getLevelBorders();
+		double[] leafValues = scorer.getLeafValues();
+
+		int index = className.lastIndexOf('.');
+
+		String packageName = (index > -1 ? className.substring(0, index) : null);
+		String simpleName = (index > -1 ? className.substring(index + 1) : className);
+
+		StringBuilder sb = new StringBuilder();
+
+		if(packageName != null){
+			sb.append("package ").append(packageName).append(";\n\n");
+		}
+
+		sb.append("// Generated by ").append(ScorerGenerator.class.getName()).append("\n");
+		sb.append("public final class ").append(simpleName).append(" implements ").append(Scorer.class.getName()).append(" {\n\n");
+
+		sb.append("\tprivate static final java.util.List<String> FEATURE_NAMES = java.util.Collections.unmodifiableList(java.util.Arrays.asList(");
+		sb.append(featureNames.stream().map(ScorerGenerator::formatString).collect(Collectors.joining(", ")));
+		sb.append("));\n\n");
+
+		sb.append("\tprivate static final double[] LEAF_VALUES = decode(new String[]{");
+		sb.append(encode(leafValues).stream().map(ScorerGenerator::formatString).collect(Collectors.joining(", ")));
+		sb.append("}, ").append(leafValues.length).append(");\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tpublic java.util.List<String> getFeatureNames(){\n");
+		sb.append("\t\treturn FEATURE_NAMES;\n");
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tpublic int getNumDimensions(){\n");
+		sb.append("\t\treturn ").append(numDimensions).append(";\n");
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tpublic int getNumOutputs(){\n");
+		sb.append("\t\treturn ").append(scorer.getNumOutputs()).append(";\n");
+		sb.append("\t}\n\n");
+
+		List<String> methodNames = new ArrayList<>();
+
+		StringBuilder methodSb = new StringBuilder();
+
+		int levelPtr = 0;
+		int leafValuesPtr = 0;
+
+		int methodStatements = 0;
+
+		for(int tree = 0; tree < treeSizes.length; tree++){
+			int numLevels = treeSizes[tree];
+
+			// One statement per level, plus the leaf index initialization and leaf value lookup(s)
+			int treeStatements = numLevels + (numDimensions == 1 ? 2 : (numDimensions + 2));
+
+			if(methodStatements > 0 && methodStatements + treeStatements > maxStatementsPerMethod){
+				appendMethod(sb, methodNames, methodSb, numDimensions);
+
+				methodSb = new StringBuilder();
+				methodStatements = 0;
+			}
+
+			methodSb.append("\t\t// Tree ").append(tree).append("\n");
+			methodSb.append("\t\tindex = 0;\n");
+
+			for(int depth = 0; depth < numLevels; depth++){
+				int level = levelPtr + depth;
+
+				methodSb.append("\t\tif(f[").append(levelFeatures[level]).append("] > ").append(formatFloat(levelBorders[level])).append(") index |= ").append(1 << depth).append(";\n");
+			}
+
+			if(numDimensions == 1){
+				methodSb.append("\t\tsum += LEAF_VALUES[").append(leafValuesPtr).append(" + index];\n");
+			} else
+
+			{
+				methodSb.append("\t\tptr = ").append(leafValuesPtr).append(" + (index * ").append(numDimensions).append(");\n");
+
+				for(int dim = 0; dim < numDimensions; dim++){
+					methodSb.append("\t\tr[").append(dim).append("] += LEAF_VALUES[ptr + ").append(dim).append("];\n");
+				}
+			}
+
+			methodStatements += treeStatements;
+
+			levelPtr += numLevels;
+			leafValuesPtr += (numDimensions << numLevels);
+		}
+
+		if(methodSb.length() > 0){
+			appendMethod(sb, methodNames, methodSb, numDimensions);
+		}
+
+		sb.append("\t@Override\n");
+		sb.append("\tpublic void predictRaw(float[] f, double[] r){\n");
+
+		// Leaf values are summed up in tree order, so that results are identical to those of the interpreting scorer
+		if(numDimensions == 1){
+			sb.append("\t\tdouble sum = 0d;\n");
+
+			for(String methodName : methodNames){
+				sb.append("\t\tsum = ").append(methodName).append("(f, sum);\n");
+			}
+
+			sb.append("\t\tr[0] = sum;\n");
+		} else
+
+		{
+			sb.append("\t\tjava.util.Arrays.fill(r, 0, ").append(numDimensions).append(", 0d);\n");
+
+			for(String methodName : methodNames){
+				sb.append("\t\t").append(methodName).append("(f, r);\n");
+			}
+		}
+
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tpublic void predict(float[] f, double[] r){\n");
+		sb.append("\t\tpredictRaw(f, r);\n");
+
+		switch(lossFunctionType){
+			case "Logloss":
+				sb.append("\t\tdouble p = 1d / (1d + Math.exp(-r[0]));\n");
+				sb.append("\t\tr[0] = (1d - p);\n");
+				sb.append("\t\tr[1] = p;\n");
+				break;
+			case "MultiClass":
+				sb.append("\t\tdouble max = r[0];\n");
+				sb.append("\t\tfor(int d = 1; d < ").append(numDimensions).append("; d++) max = Math.max(max, r[d]);\n");
+				sb.append("\t\tdouble sum = 0d;\n");
+				sb.append("\t\tfor(int d = 0; d < ").append(numDimensions).append("; d++){ r[d] = Math.exp(r[d] - max); sum += r[d]; }\n");
+				sb.append("\t\tfor(int d = 0; d < ").append(numDimensions).append("; d++) r[d] /= sum;\n");
+				break;
+			default:
+				break;
+		}
+
+		sb.append("\t}\n\n");
+
+		sb.append("\tprivate static double[] decode(String[] parts, int length){\n");
+		sb.append("\t\tStringBuilder sb = new StringBuilder();\n");
+		sb.append("\t\tfor(String part : parts) sb.append(part);\n");
+		sb.append("\t\tdouble[] result = new double[length];\n");
+		sb.append("\t\tjava.nio.ByteBuffer.wrap(java.util.Base64.getDecoder().decode(sb.toString())).order(java.nio.ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(result);\n");
+		sb.append("\t\treturn result;\n");
+		sb.append("\t}\n");
+
+		sb.append("}\n");
+
+		return sb.toString();
+	}
+
+	/**
+	 * @return The bytecode of the generated class, targeting Java 8.
+	 *
+	 * @see #compile(String, String, int)
+	 */
+	static
+	public byte[] compile(String className, String source){
+		return compile(className, source, DEFAULT_RELEASE);
+	}
+
+	/**
+	 * @param release The Java SE release that the generated class must run on.
+	 *
+	 * @return The bytecode of the generated class.
+	 */
+	static
+	public byte[] compile(String className, String source, int release){
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if(compiler == null){
+			throw new IllegalStateException("The system Java compiler is not available. Run on a JDK instead of a JRE");
+		}
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+		StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, Locale.US, null);
+
+		Map<String, ByteArrayOutputStream> classFiles = new LinkedHashMap<>();
+
+		JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standardFileManager){
+
+			@Override
+			public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String name, JavaFileObject.Kind kind, FileObject sibling){
+				ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+				classFiles.put(name, os);
+
+				return new SimpleJavaFileObject(toURI(name, kind), kind){
+
+					@Override
+					public OutputStream openOutputStream(){
+						return os;
+					}
+				};
+			}
+		};
+
+		JavaFileObject sourceFile = new SimpleJavaFileObject(toURI(className, JavaFileObject.Kind.SOURCE), JavaFileObject.Kind.SOURCE){
+
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors){
+				return source;
+			}
+		};
+
+		List<String> options = new ArrayList<>(Arrays.asList("-classpath", getClassPath(), "-g:none"));
+
+		// The --release option is available since Java 9
+		if(compiler.isSupportedOption("--release") >= 0){
+			options.addAll(Arrays.asList("--release", String.valueOf(release)));
+		} else
+
+		{
+			options.addAll(Arrays.asList("-source", String.valueOf(release), "-target", String.valueOf(release)));
+		}
+
+		Boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, Arrays.asList(sourceFile)).call();
+		if(!success){
+			String message = (diagnostics.getDiagnostics()).stream()
+				.filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+				.map(diagnostic -> diagnostic.getMessage(Locale.US))
+				.collect(Collectors.joining("; "));
+
+			throw new IllegalArgumentException("Generated class " + className + " could not be compiled: " + message);
+		}
+
+		ByteArrayOutputStream os = classFiles.get(className);
+		if(os == null || classFiles.size() != 1){
+			throw new IllegalStateException();
+		}
+
+		return os.toByteArray();
+	}
+
+	static
+	public Scorer load(String className, byte[] bytecode) throws ReflectiveOperationException {
+		GeneratedClassLoader classLoader = new GeneratedClassLoader(Scorer.class.getClassLoader(), className, bytecode);
+
+		Class<? extends Scorer> clazz = (classLoader.loadClass(className)).asSubclass(Scorer.class);
+
+		return clazz.getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * <p>
+	 * Generates, compiles and loads a scorer class.
+	 * </p>
+	 */
+	static
+	public Scorer generateScorer(CatBoostScorer scorer) throws ReflectiveOperationException {
+		String className = "GeneratedScorer";
+
+		String source = generateSource(scorer, className);
+
+		return load(className, compile(className, source));
+	}
+
+	static
+	private void appendMethod(StringBuilder sb, List<String> methodNames, StringBuilder methodSb, int numDimensions){
+		String methodName = "trees" + methodNames.size();
+
+		if(numDimensions == 1){
+			sb.append("\tprivate static double ").append(methodName).append("(float[] f, double sum){\n");
+			sb.append("\t\tint index;\n");
+		} else
+
+		{
+			sb.append("\tprivate static void ").append(methodName).append("(float[] f, double[] r){\n");
+			sb.append("\t\tint index;\n");
+			sb.append("\t\tint ptr;\n");
+		}
+
+		sb.append(methodSb);
+
+		if(numDimensions == 1){
+			sb.append("\t\treturn sum;\n");
+		}
+
+		sb.append("\t}\n\n");
+
+		methodNames.add(methodName);
+	}
+
+	static
+	private List<String> encode(double[] values){
+		ByteBuffer byteBuffer = ByteBuffer.allocate(values.length * 8)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		(byteBuffer.asDoubleBuffer()).put(values);
+
+		String string = Base64.getEncoder().encodeToString(byteBuffer.array());
+
+		// String constants are limited to 65535 bytes in the class file format
+		List<String> result = new ArrayList<>();
+
+		for(int i = 0; i < string.length(); i += ScorerGenerator.MAX_STRING_LENGTH){
+			result.add(string.substring(i, Math.min(string.length(), i + ScorerGenerator.MAX_STRING_LENGTH)));
+		}
+
+		return result;
+	}
+
+	static
+	private String formatFloat(float value){
+
+		if(Float.isNaN(value) || Float.isInfinite(value)){
+			throw new IllegalArgumentException("Border " + value + " is not finite");
+		}
+
+		// Hexadecimal floating-point literals are exact
+		return Float.toHexString(value) + "f";
+	}
+
+	static
+	private String formatString(String value){
+		StringBuilder sb = new StringBuilder();
+
+		sb.append('\"');
+
+		for(int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+
+			if(c == '\"' || c == '\\'){
+				sb.append('\\').append(c);
+			} else
+
+			if(c < 0x20 || c > 0x7e){
+				sb.append(String.format("\\u%04x", (int)c));
+			} else
+
+			{
+				sb.append(c);
+			}
+		}
+
+		sb.append('\"');
+
+		return sb.toString();
+	}
+
+	static
+	private URI toURI(String className, JavaFileObject.Kind kind){
+		return URI.create("string:///" + className.replace('.', '/') + kind.extension);
+	}
+
+	static
+	private String getClassPath(){
+		List<String> paths = new ArrayList<>();
+
+		try {
+			paths.add(new File(((Scorer.class.getProtectionDomain()).getCodeSource()).getLocation().toURI()).getPath());
+		} catch(SecurityException | NullPointerException | URISyntaxException e){
+			// Ignored
+		}
+
+		paths.add(System.getProperty("java.class.path"));
+
+		return String.join(File.pathSeparator, paths);
+	}
+
+	static
+	private class GeneratedClassLoader extends ClassLoader {
+
+		private String className = null;
+
+		private byte[] bytecode = null;
+
+
+		private GeneratedClassLoader(ClassLoader parent, String className, byte[] bytecode){
+			super(parent);
+
+			this.className = className;
+			this.bytecode = bytecode;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+
+			if((this.className).equals(name)){
+				return defineClass(name, this.bytecode, 0, this.bytecode.length);
+			}
+
+			return super.findClass(name);
+		}
+	}
+
+	public static final int DEFAULT_RELEASE = 8;
+
+	// The HotSpot JIT compiler does not compile methods that are larger than 8000 bytes of bytecode
+	private static final int MAX_STATEMENTS_PER_METHOD = 400;
+
+	private static final int MAX_STRING_LENGTH = 65000;
+}
@@ -19,15 +19,33 @@
 package org.jpmml.catboost;
 
 import org.dmg.pmml.FieldName;
+import org.dmg.pmml.SimplePredicate;
 
+/**
+ * <p>
+ * A binary feature.
+ * The left and right predicates are created once, and are shared between all trees that split on this binary feature.
+ * </p>
+ */
 abstract
 class Split {
 
 	private FieldName name = null;
 
+	private SimplePredicate leftPredicate = null;
+
+	private SimplePredicate rightPredicate = null;
 
-	Split(FieldName name){
+
+	Split(FieldName name, Object value){
+		this(name, SimplePredicate.Operator.LESS_OR_EQUAL, SimplePredicate.Operator.GREATER_THAN, value);
+	}
+
+	Split(FieldName name, SimplePredicate.Operator leftOperator, SimplePredicate.Operator rightOperator, Object value){
 		setName(name);
+
+		setLeftPredicate(new SimplePredicate(name, leftOperator, value));
+		setRightPredicate(new SimplePredicate(name, rightOperator, value));
 	}
 
 	public FieldName getName(){
@@ -37,4 +55,20 @@ class Split {
 	private void setName(FieldName name){
 		this.name = name;
 	}
+
+	public SimplePredicate getLeftPredicate(){
+		return this.leftPredicate;
+	}
+
+	private void setLeftPredicate(SimplePredicate leftPredicate){
+		this.leftPredicate = leftPredicate;
+	}
+
+	public SimplePredicate getRightPredicate(){
+		return this.rightPredicate;
+	}
+
+	private void setRightPredicate(SimplePredicate rightPredicate){
+		this.rightPredicate = rightPredicate;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import javax.xml.bind.Marshaller;
+
+import org.dmg.pmml.Predicate;
+import org.dmg.pmml.VisitorAction;
+import org.dmg.pmml.tree.Node;
+import org.dmg.pmml.tree.TreeModel;
+import org.jpmml.converter.visitors.AttributeCleaner;
+
+/**
+ * <p>
+ * Swaps the full node structure into a stub tree model right before it is marshalled, and back out right after.
+ * </p>
+ *
+ * <p>
+ * When an executor is given, the node structures of the next few tree models are generated ahead of time.
+ * Tree models must then be marshalled in the iteration order of the deferred nodes map.
+ * </p>
+ *
+ * <p>
+ * Every marshalled PMML class model object is counted towards conversion metrics.
+ * </p>
+ */
+class TreeModelListener extends Marshaller.Listener {
+
+	private Map<TreeModel, Supplier<Node>> deferredNodes = null;
+
+	private ExecutorService executor = null;
+
+	private int prefetch = 0;
+
+	private Iterator<Map.Entry<TreeModel, Supplier<Node>>> pendingEntries = null;
+
+	private Map<TreeModel, Future<Node>> futureNodes = new IdentityHashMap<>();
+
+	private Node stubNode = null;
+
+	private ConversionMetrics metrics = null;
+
+
+	TreeModelListener(Map<TreeModel, Supplier<Node>> deferredNodes, ConversionMetrics metrics){
+		this(deferredNodes, null, 0, metrics);
+	}
+
+	TreeModelListener(Map<TreeModel, Supplier<Node>> deferredNodes, ExecutorService executor, int prefetch, ConversionMetrics metrics){
+		this.deferredNodes = deferredNodes;
+		this.executor = executor;
+		this.prefetch = prefetch;
+		this.metrics = metrics;
+
+		this.pendingEntries = (deferredNodes.entrySet()).iterator();
+	}
+
+	@Override
+	public void beforeMarshal(Object source){
+		CatBoostUtil.checkInterrupted();
+
+		this.metrics.count(source);
+
+		if(!this.deferredNodes.containsKey(source)){
+			return;
+		}
+
+		TreeModel treeModel = (TreeModel)source;
+
+		Node node;
+
+		if(this.executor != null){
+			Map<TreeModel, Future<Node>> futureNodes = this.futureNodes;
+
+			while((futureNodes.size() < this.prefetch || !futureNodes.containsKey(treeModel)) && this.pendingEntries.hasNext()){
+				Map.Entry<TreeModel, Supplier<Node>> entry = this.pendingEntries.next();
+
+				Supplier<Node> nodeSupplier = entry.getValue();
+
+				futureNodes.put(entry.getKey(), this.executor.submit(() -> encodeNode(nodeSupplier)));
+			}
+
+			Future<Node> futureNode = futureNodes.remove(treeModel);
+
+			try {
+				node = futureNode.get();
+			} catch(ExecutionException ee){
+				throw new IllegalStateException(ee.getCause());
+			} catch(InterruptedException ie){
+				Thread.currentThread().interrupt();
+
+				throw new IllegalStateException(ie);
+			}
+		} else
+
+		{
+			node = encodeNode(this.deferredNodes.get(treeModel));
+		}
+
+		this.stubNode = treeModel.getNode();
+
+		treeModel.setNode(node);
+	}
+
+	@Override
+	public void afterMarshal(Object source){
+
+		if(!this.deferredNodes.containsKey(source)){
+			return;
+		}
+
+		TreeModel treeModel = (TreeModel)source;
+
+		// Release the full node structure
+		treeModel.setNode(this.stubNode);
+
+		this.stubNode = null;
+	}
+
+	static
+	private Node encodeNode(Supplier<Node> nodeSupplier){
+		Node node = nodeSupplier.get();
+
+		// Predicates are shared between trees, which may be marshalled concurrently.
+		// The attribute cleaner resets and restores attribute values in place, so it must not touch them
+		AttributeCleaner attributeCleaner = new AttributeCleaner(){
+
+			@Override
+			public VisitorAction visit(Predicate predicate){
+				return VisitorAction.SKIP;
+			}
+		};
+		attributeCleaner.applyTo(node);
+
+		return node;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.jpmml.catboost.ConversionPhase")
+@Label("Conversion Phase")
+@Description("A phase of converting a CatBoost model to PMML")
+@Category({"JPMML", "CatBoost"})
+class ConversionPhaseEvent extends Event {
+
+	@Label("Phase")
+	String phase;
+
+
+	static
+	Object begin(String phase){
+		ConversionPhaseEvent event = new ConversionPhaseEvent();
+		event.phase = phase;
+
+		event.begin();
+
+		return event;
+	}
+
+	static
+	void commit(Object object){
+		ConversionPhaseEvent event = (ConversionPhaseEvent)object;
+
+		event.commit();
+	}
+}
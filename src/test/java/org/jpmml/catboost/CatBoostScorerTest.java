@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import NCatBoostFbs.TModelCore;
+import org.jpmml.evaluator.CsvUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CatBoostScorerTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+	@Test
+	public void predictIris() throws Exception {
+		predict("Classification", "Iris", 1);
+	}
+
+	@Test
+	public void predictVersicolor() throws Exception {
+		predict("Classification", "Versicolor", 1);
+	}
+
+	@Test
+	public void predictAuto() throws Exception {
+		predict("Regression", "Auto", 0);
+	}
+
+	@Test
+	public void rejectCatFeatures() throws Exception {
+		TModelCore modelCore = loadModelCore("ClassificationAudit");
+
+		try {
+			new CatBoostScorer(modelCore);
+
+			fail();
+		} catch(IllegalArgumentException iae){
+			assertTrue((iae.getMessage()).contains("float features only"));
+		}
+	}
+
+	@Test
+	public void predictBatch() throws Exception {
+		String[][] names = {{"Classification", "Iris"}, {"Classification", "Versicolor"}, {"Regression", "Auto"}};
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			for(String[] name : names){
+				CatBoostScorer scorer = new CatBoostScorer(loadModelCore(name[0] + name[1]));
+
+				float[][] input = loadInput(name[1], scorer.getFeatureNames());
+
+				// Replicate the dataset, so that it spans multiple blocks
+				float[][] rows = new float[input.length * 10][];
+
+				for(int row = 0; row < rows.length; row++){
+					rows[row] = input[row % input.length];
+				}
+
+				float[][] columns = new float[scorer.getNumFeatures()][rows.length];
+
+				for(int row = 0; row < rows.length; row++){
+
+					for(int i = 0; i < columns.length; i++){
+						columns[i][row] = rows[row][i];
+					}
+				}
+
+				double[][] rawResult = new double[scorer.getNumDimensions()][rows.length];
+				double[][] result = new double[scorer.getNumOutputs()][rows.length];
+
+				scorer.predictRaw(columns, rawResult, pool);
+				scorer.predict(columns, result, pool);
+
+				double[] rowRawResult = new double[scorer.getNumDimensions()];
+				double[] rowResult = new double[scorer.getNumOutputs()];
+
+				for(int row = 0; row < rows.length; row++){
+					scorer.predictRaw(rows[row], rowRawResult);
+					scorer.predict(rows[row], rowResult);
+
+					for(int i = 0; i < rowRawResult.length; i++){
+						assertEquals(rowRawResult[i], rawResult[i][row], 0d);
+					}
+
+					for(int i = 0; i < rowResult.length; i++){
+						assertEquals(rowResult[i], result[i][row], 0d);
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void readScorer() throws Exception {
+		String[][] names = {{"Classification", "Iris"}, {"Classification", "Versicolor"}, {"Regression", "Auto"}};
+
+		for(String[] name : names){
+			CatBoostScorer scorer = new CatBoostScorer(loadModelCore(name[0] + name[1]));
+
+			File file = this.temporaryFolder.newFile(name[0] + name[1] + ".cbsc");
+
+			try(OutputStream os = new FileOutputStream(file)){
+				CatBoostScorerUtil.writeScorer(scorer, os);
+			}
+
+			CatBoostScorer mappedScorer = CatBoostScorerUtil.readScorer(file);
+
+			assertEquals(scorer.getLossFunctionType(), mappedScorer.getLossFunctionType());
+			assertEquals(scorer.getFeatureNames(), mappedScorer.getFeatureNames());
+			assertEquals(scorer.getNumDimensions(), mappedScorer.getNumDimensions());
+
+			float[][] input = loadInput(name[1], scorer.getFeatureNames());
+
+			for(float[] row : input){
+				assertArrayEquals(scorer.predict(row), mappedScorer.predict(row), 0d);
+			}
+		}
+	}
+
+	static
+	private void predict(String name, String dataset, int outputOffset) throws Exception {
+		CatBoostScorer scorer = new CatBoostScorer(loadModelCore(name + dataset));
+
+		float[][] input = loadInput(dataset, scorer.getFeatureNames());
+
+		List<List<String>> output = loadTable("/csv/" + name + dataset + ".csv");
+
+		double[] result = new double[scorer.getNumOutputs()];
+
+		for(int row = 0; row < input.length; row++){
+			List<String> expected = output.get(row + 1);
+
+			scorer.predict(input[row], result);
+
+			for(int i = 0; i < result.length; i++){
+				assertEquals(Double.parseDouble(expected.get(outputOffset + i)), result[i], 1e-10);
+			}
+		}
+	}
+
+	static
+	TModelCore loadModelCore(String name) throws Exception {
+
+		try(InputStream is = CatBoostScorerTest.class.getResourceAsStream("/cbm/" + name + ".cbm")){
+			return CatBoostUtil.readTModelCore(is);
+		}
+	}
+
+	static
+	float[][] loadInput(String dataset, List<String> featureNames) throws Exception {
+		List<List<String>> table = loadTable("/csv/" + dataset + ".csv");
+
+		List<String> header = table.get(0);
+
+		float[][] result = new float[table.size() - 1][featureNames.size()];
+
+		for(int row = 0; row < result.length; row++){
+			List<String> values = table.get(row + 1);
+
+			for(int i = 0; i < featureNames.size(); i++){
+				String value = values.get(header.indexOf(featureNames.get(i)));
+
+				result[row][i] = ("NA").equals(value) ? Float.NaN : Float.parseFloat(value);
+			}
+		}
+
+		return result;
+	}
+
+	static
+	List<List<String>> loadTable(String path) throws Exception {
+
+		try(InputStream is = CatBoostScorerTest.class.getResourceAsStream(path)){
+			return CsvUtil.readTable(is, ",");
+		}
+	}
+}
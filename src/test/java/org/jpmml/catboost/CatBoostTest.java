@@ -19,12 +19,21 @@
 package org.jpmml.catboost;
 
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 
-import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TObliviousTrees;
+import com.google.common.collect.ImmutableMap;
 import org.dmg.pmml.FieldName;
 import org.dmg.pmml.PMML;
 import org.jpmml.evaluator.ArchiveBatch;
+import org.jpmml.evaluator.Batch;
 import org.jpmml.evaluator.IntegrationTest;
 import org.jpmml.evaluator.IntegrationTestBatch;
 import org.jpmml.evaluator.RealNumberEquivalence;
@@ -35,8 +44,31 @@ public class CatBoostTest extends IntegrationTest {
 		super(new RealNumberEquivalence(2));
 	}
 
+	@Override
+	public void evaluate(String name, String dataset) throws Exception {
+		List<Map<String, ?>> optionsList = Arrays.asList(
+			Collections.emptyMap(),
+			Collections.singletonMap(HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE),
+			Collections.singletonMap(HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.TRUE),
+			Collections.singletonMap(HasCatBoostOptions.OPTION_BINARIZE, Boolean.TRUE),
+			ImmutableMap.of(HasCatBoostOptions.OPTION_BINARIZE, Boolean.TRUE, HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.TRUE),
+			ImmutableMap.of(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.FALSE, HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE)
+		);
+
+		for(Map<String, ?> options : optionsList){
+
+			try(Batch batch = createBatch(name, dataset, excludeFields(), options)){
+				evaluate(batch, getEquivalence());
+			}
+		}
+	}
+
 	@Override
 	protected ArchiveBatch createBatch(String name, String dataset, Predicate<FieldName> predicate){
+		return createBatch(name, dataset, predicate, Collections.emptyMap());
+	}
+
+	protected ArchiveBatch createBatch(String name, String dataset, Predicate<FieldName> predicate, Map<String, ?> options){
 		ArchiveBatch result = new IntegrationTestBatch(name, dataset, predicate){
 
 			@Override
@@ -46,13 +78,16 @@ public class CatBoostTest extends IntegrationTest {
 
 			@Override
 			public PMML getPMML() throws Exception {
-				TModelCore modelCore;
+				CatBoostModel catBoostModel;
 
 				try(InputStream is = open("/cbm/" + getName() + getDataset() + ".cbm")){
-					modelCore = CatBoostUtil.readTModelCore(is);
+					catBoostModel = CatBoostUtil.readCatBoostModel(is);
 				}
 
-				PMML pmml = CatBoostUtil.encodePMML(modelCore);
+				Map<String, Object> catBoostOptions = new LinkedHashMap<>(options);
+				catBoostOptions.put(HasCatBoostOptions.OPTION_CAT_FEATURE_VALUES, collectCatFeatureValues(catBoostModel, getInput()));
+
+				PMML pmml = CatBoostUtil.encodePMML(catBoostModel, catBoostOptions);
 
 				ensureValidity(pmml);
 
@@ -62,4 +97,29 @@ public class CatBoostTest extends IntegrationTest {
 
 		return result;
 	}
-}
\ No newline at end of file
+
+	static
+	private Map<String, Set<String>> collectCatFeatureValues(CatBoostModel catBoostModel, List<? extends Map<FieldName, String>> input){
+		TObliviousTrees obliviousTrees = (catBoostModel.getModelCore()).ObliviousTrees();
+
+		Map<String, Set<String>> result = new LinkedHashMap<>();
+
+		for(int i = 0; i < obliviousTrees.CatFeaturesLength(); i++){
+			String name = (obliviousTrees.CatFeatures(i)).FeatureId();
+
+			Set<String> values = new LinkedHashSet<>();
+
+			for(Map<FieldName, String> row : input){
+				String value = row.get(FieldName.create(name));
+
+				if(value != null){
+					values.add(value);
+				}
+			}
+
+			result.put(name, values);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,792 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import NCatBoostFbs.TCtrValueTable;
+import NCatBoostFbs.TModelCore;
+import NCatBoostFbs.TObliviousTrees;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import org.dmg.pmml.DerivedField;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.PMML;
+import org.dmg.pmml.SimplePredicate;
+import org.dmg.pmml.Visitor;
+import org.dmg.pmml.VisitorAction;
+import org.dmg.pmml.tree.TreeModel;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.EvaluatorUtil;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.ModelEvaluatorBuilder;
+import org.jpmml.model.MetroJAXBUtil;
+import org.jpmml.model.visitors.AbstractVisitor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CatBoostUtilTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+	@Test
+	public void readTModelCore() throws Exception {
+		String[] names = {"ClassificationAudit", "ClassificationIris", "ClassificationVersicolor", "RegressionAuto"};
+
+		for(String name : names){
+			URL url = CatBoostUtilTest.class.getResource("/cbm/" + name + ".cbm");
+
+			TModelCore streamModelCore;
+
+			try(InputStream is = url.openStream()){
+				streamModelCore = CatBoostUtil.readTModelCore(is);
+			}
+
+			TModelCore mappedModelCore = CatBoostUtil.readTModelCore(new File(url.toURI()));
+
+			TObliviousTrees streamObliviousTrees = streamModelCore.ObliviousTrees();
+			TObliviousTrees mappedObliviousTrees = mappedModelCore.ObliviousTrees();
+
+			assertEquals(streamObliviousTrees.ApproxDimension(), mappedObliviousTrees.ApproxDimension());
+
+			assertEquals(streamObliviousTrees.TreeSplitsAsByteBuffer(), mappedObliviousTrees.TreeSplitsAsByteBuffer());
+			assertEquals(streamObliviousTrees.LeafValuesAsByteBuffer(), mappedObliviousTrees.LeafValuesAsByteBuffer());
+		}
+	}
+
+	@Test
+	public void readCatBoostModel() throws Exception {
+		URL url = CatBoostUtilTest.class.getResource("/cbm/ClassificationAudit.cbm");
+
+		CatBoostModel streamCatBoostModel;
+
+		try(InputStream is = url.openStream()){
+			streamCatBoostModel = CatBoostUtil.readCatBoostModel(is);
+		}
+
+		CatBoostModel mappedCatBoostModel = CatBoostUtil.readCatBoostModel(new File(url.toURI()));
+
+		List<TCtrValueTable> streamCtrValueTables = streamCatBoostModel.getCtrValueTables();
+		List<TCtrValueTable> mappedCtrValueTables = mappedCatBoostModel.getCtrValueTables();
+
+		assertEquals(5, streamCtrValueTables.size());
+		assertEquals(5, mappedCtrValueTables.size());
+
+		for(int i = 0; i < streamCtrValueTables.size(); i++){
+			TCtrValueTable streamCtrValueTable = streamCtrValueTables.get(i);
+			TCtrValueTable mappedCtrValueTable = mappedCtrValueTables.get(i);
+
+			assertEquals(streamCtrValueTable.IndexHashRawAsByteBuffer(), mappedCtrValueTable.IndexHashRawAsByteBuffer());
+			assertEquals(streamCtrValueTable.CTRBlobAsByteBuffer(), mappedCtrValueTable.CTRBlobAsByteBuffer());
+		}
+	}
+
+	@Test
+	public void readCompressedCatBoostModel() throws Exception {
+		URL url = CatBoostUtilTest.class.getResource("/cbm/ClassificationAudit.cbm");
+
+		File file = this.temporaryFolder.newFile("ClassificationAudit.cbm.gz");
+
+		try(InputStream is = url.openStream(); OutputStream os = new GZIPOutputStream(new FileOutputStream(file))){
+			ByteStreams.copy(is, os);
+		}
+
+		CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(new File(url.toURI()));
+
+		CatBoostModel streamCatBoostModel;
+
+		try(InputStream is = new FileInputStream(file)){
+			streamCatBoostModel = CatBoostUtil.readCatBoostModel(is);
+		}
+
+		CatBoostModel fileCatBoostModel = CatBoostUtil.readCatBoostModel(file);
+
+		for(CatBoostModel compressedCatBoostModel : Arrays.asList(streamCatBoostModel, fileCatBoostModel)){
+			TObliviousTrees obliviousTrees = (catBoostModel.getModelCore()).ObliviousTrees();
+			TObliviousTrees compressedObliviousTrees = (compressedCatBoostModel.getModelCore()).ObliviousTrees();
+
+			assertEquals(obliviousTrees.TreeSplitsAsByteBuffer(), compressedObliviousTrees.TreeSplitsAsByteBuffer());
+			assertEquals(obliviousTrees.LeafValuesAsByteBuffer(), compressedObliviousTrees.LeafValuesAsByteBuffer());
+
+			List<TCtrValueTable> ctrValueTables = catBoostModel.getCtrValueTables();
+			List<TCtrValueTable> compressedCtrValueTables = compressedCatBoostModel.getCtrValueTables();
+
+			assertEquals(ctrValueTables.size(), compressedCtrValueTables.size());
+
+			for(int i = 0; i < ctrValueTables.size(); i++){
+				assertEquals((ctrValueTables.get(i)).CTRBlobAsByteBuffer(), (compressedCtrValueTables.get(i)).CTRBlobAsByteBuffer());
+			}
+		}
+
+		TModelCore modelCore = CatBoostUtil.readTModelCore(file);
+
+		assertEquals((catBoostModel.getModelCore()).ObliviousTrees().TreeSizesLength(), modelCore.ObliviousTrees().TreeSizesLength());
+	}
+
+	@Test
+	public void reportCompression() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/RegressionAuto.cbm")).toURI()));
+
+		CompressionReport report = CatBoostUtil.reportCompression(modelCore, Collections.emptyMap());
+
+		assertEquals(0, report.getNumPrunedTrees());
+		assertEquals(0d, report.getMaxError(), 0d);
+
+		Map<String, ?> options = ImmutableMap.of(HasCatBoostOptions.OPTION_PRUNE_TOLERANCE, 0.6d, HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION, 1);
+
+		report = CatBoostUtil.reportCompression(modelCore, options);
+
+		assertTrue(report.getNumPrunedTrees() > 0 && report.getNumPrunedTrees() < report.getNumTrees());
+		assertTrue(report.getMaxError() > 0d);
+
+		Evaluator evaluator = new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore))
+			.build();
+
+		List<Map<FieldName, String>> rows = loadRows("Auto");
+
+		List<Double> expectedResults = evaluate(evaluator, rows, null);
+
+		for(Map<String, ?> extraOptions : Arrays.asList(options, Collections.singletonMap(HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.TRUE))){
+			Map<String, Object> encodeOptions = new LinkedHashMap<>(options);
+			encodeOptions.putAll(extraOptions);
+
+			Evaluator compressedEvaluator = new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, encodeOptions))
+				.build();
+
+			List<Double> actualResults = evaluate(compressedEvaluator, rows, null);
+
+			double maxError = 0d;
+
+			for(int i = 0; i < rows.size(); i++){
+				maxError = Math.max(maxError, Math.abs(expectedResults.get(i) - actualResults.get(i)));
+			}
+
+			assertTrue(maxError > 0d);
+			assertTrue(maxError <= report.getMaxError() + 1e-9);
+		}
+	}
+
+	@Test
+	public void reportTruncatedCompression() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/RegressionAuto.cbm")).toURI()));
+
+		Map<String, ?> truncateOptions = Collections.singletonMap(HasCatBoostOptions.OPTION_NTREE_END, 5);
+		Map<String, ?> options = ImmutableMap.of(HasCatBoostOptions.OPTION_NTREE_END, 5, HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION, 0);
+
+		CompressionReport report = CatBoostUtil.reportCompression(modelCore, options);
+
+		assertEquals(5, report.getNumTrees());
+		assertEquals(5, (CatBoostUtil.reportCompression(modelCore, Collections.singletonMap(HasCatBoostOptions.OPTION_NTREE_END, 5L))).getNumTrees());
+
+		List<Map<FieldName, String>> rows = loadRows("Auto");
+
+		List<Double> expectedResults = evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, truncateOptions)).build(), rows, null);
+		List<Double> actualResults = evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, options)).build(), rows, null);
+
+		double maxError = 0d;
+
+		for(int i = 0; i < rows.size(); i++){
+			maxError = Math.max(maxError, Math.abs(expectedResults.get(i) - actualResults.get(i)));
+		}
+
+		assertTrue(maxError > 0d);
+		assertTrue(maxError <= report.getMaxError() + 1e-9);
+
+		Map<String, ?> longOptions = ImmutableMap.of(HasCatBoostOptions.OPTION_NTREE_END, 5L, HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION, 0L);
+
+		assertEquals(report.getMaxError(), (CatBoostUtil.reportCompression(modelCore, longOptions)).getMaxError(), 0d);
+		assertEquals(actualResults, evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, longOptions)).build(), rows, null));
+
+		assertTrue(report.getMaxError() < (CatBoostUtil.reportCompression(modelCore, Collections.singletonMap(HasCatBoostOptions.OPTION_LEAF_VALUE_PRECISION, 0))).getMaxError());
+	}
+
+	@Test
+	public void encodePrunedModel() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/RegressionAuto.cbm")).toURI()));
+
+		List<Map<FieldName, String>> rows = loadRows("Auto");
+
+		List<Double> expectedResults = null;
+
+		for(Boolean lookupTable : Arrays.asList(Boolean.FALSE, Boolean.TRUE)){
+			Map<String, ?> options = ImmutableMap.of(HasCatBoostOptions.OPTION_PRUNE_TOLERANCE, Double.MAX_VALUE, HasCatBoostOptions.OPTION_LOOKUP_TABLE, lookupTable);
+
+			List<Double> results = evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, options)).build(), rows, null);
+
+			assertEquals(1, (new HashSet<>(results)).size());
+
+			if(expectedResults == null){
+				expectedResults = results;
+			}
+
+			assertEquals(expectedResults, results);
+		}
+	}
+
+	@Test
+	public void encodeStagedModel() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/RegressionAuto.cbm")).toURI()));
+
+		List<Map<FieldName, String>> rows = loadRows("Auto");
+
+		List<Double> fullResults = evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore)).build(), rows, null);
+		List<Double> truncatedResults = evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, Collections.singletonMap(HasCatBoostOptions.OPTION_NTREE_END, 10))).build(), rows, null);
+
+		assertNotEquals(fullResults, truncatedResults);
+
+		// Tree counts may be specified as any Number (eg. when deserialized from JSON)
+		assertEquals(truncatedResults, evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, Collections.singletonMap(HasCatBoostOptions.OPTION_NTREE_END, 10L))).build(), rows, null));
+
+		List<Map<String, ?>> optionsList = Arrays.asList(
+			Collections.singletonMap(HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS, Arrays.asList(10, 5, 100)),
+			Collections.singletonMap(HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS, Arrays.asList(10L, 5L, 100L)),
+			ImmutableMap.of(HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS, Arrays.asList(10, 5, 100), HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.TRUE)
+		);
+
+		for(Map<String, ?> options : optionsList){
+			Evaluator evaluator = new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, options))
+				.build();
+
+			assertResultsEquals(fullResults, evaluate(evaluator, rows, null));
+			assertResultsEquals(truncatedResults, evaluate(evaluator, rows, FieldName.create("partialSum(10)")));
+			assertResultsEquals(fullResults, evaluate(evaluator, rows, FieldName.create("partialSum(100)")));
+		}
+
+		modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/ClassificationIris.cbm")).toURI()));
+
+		rows = loadRows("Iris");
+
+		FieldName probability = FieldName.create("probability(2)");
+
+		Evaluator evaluator = new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, Collections.singletonMap(HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS, Arrays.asList(2))))
+			.build();
+
+		assertResultsEquals(evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore)).build(), rows, probability), evaluate(evaluator, rows, probability));
+	}
+
+	@Test
+	public void encodeCompactModel() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/RegressionAuto.cbm")).toURI()));
+
+		List<Map<FieldName, String>> rows = loadRows("Auto");
+
+		Map<String, ?> options = Collections.singletonMap(HasCatBoostOptions.OPTION_NTREE_END, 1);
+
+		List<Double> expectedResults = evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, options)).build(), rows, null);
+
+		for(double compactTolerance : new double[]{0.05d, 0.1d, 0.16d, 0.25d, 0.55d}){
+			Map<String, ?> compactOptions = ImmutableMap.of(HasCatBoostOptions.OPTION_NTREE_END, 1, HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE, HasCatBoostOptions.OPTION_COMPACT_TOLERANCE, compactTolerance);
+
+			List<Double> actualResults = evaluate(new ModelEvaluatorBuilder(CatBoostUtil.encodePMML(modelCore, compactOptions)).build(), rows, null);
+
+			// Merged leaves stay within the tolerance of every original leaf, however many levels they span
+			for(int i = 0; i < expectedResults.size(); i++){
+				assertEquals(expectedResults.get(i), actualResults.get(i), compactTolerance + 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void writePMML() throws Exception {
+		String[] names = {"ClassificationIris", "ClassificationVersicolor", "RegressionAuto"};
+
+		List<Map<String, ?>> optionsList = Arrays.asList(
+			Collections.emptyMap(),
+			Collections.singletonMap(HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE),
+			Collections.singletonMap(HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.TRUE),
+			ImmutableMap.of(HasCatBoostOptions.OPTION_BINARIZE, Boolean.TRUE, HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE)
+		);
+
+		for(String name : names){
+			TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/" + name + ".cbm")).toURI()));
+
+			for(Map<String, ?> options : optionsList){
+				String expected = marshal(CatBoostUtil.encodePMML(modelCore, options));
+
+				Map<String, Object> parallelOptions = new LinkedHashMap<>(options);
+				parallelOptions.put(HasCatBoostOptions.OPTION_PARALLELISM, 4);
+
+				assertEquals(expected, marshal(CatBoostUtil.encodePMML(modelCore, parallelOptions)));
+
+				assertEquals(expected, write(modelCore, options));
+				assertEquals(expected, write(modelCore, parallelOptions));
+
+				// Options that have been deserialized from JSON may hold other number types
+				parallelOptions.put(HasCatBoostOptions.OPTION_PARALLELISM, 4L);
+
+				assertEquals(expected, write(modelCore, parallelOptions));
+			}
+		}
+	}
+
+	@Test
+	public void encodeSharedPredicates() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/ClassificationIris.cbm")).toURI()));
+
+		PMML pmml = CatBoostUtil.encodePMML(modelCore, Collections.singletonMap(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.FALSE));
+
+		List<SimplePredicate> simplePredicates = new ArrayList<>();
+
+		Visitor visitor = new AbstractVisitor(){
+
+			@Override
+			public VisitorAction visit(SimplePredicate simplePredicate){
+				simplePredicates.add(simplePredicate);
+
+				return super.visit(simplePredicate);
+			}
+		};
+		visitor.applyTo(pmml);
+
+		Set<SimplePredicate> uniqueSimplePredicates = Collections.newSetFromMap(new IdentityHashMap<>());
+		uniqueSimplePredicates.addAll(simplePredicates);
+
+		int numSplits = 0;
+
+		TObliviousTrees obliviousTrees = modelCore.ObliviousTrees();
+
+		for(int i = 0; i < obliviousTrees.FloatFeaturesLength(); i++){
+			numSplits += (obliviousTrees.FloatFeatures(i)).BordersLength();
+		}
+
+		assertTrue(simplePredicates.size() > uniqueSimplePredicates.size());
+		assertTrue(uniqueSimplePredicates.size() <= 2 * numSplits);
+	}
+
+	@Test
+	public void encodeSharedTrees() throws Exception {
+		TModelCore modelCore = CatBoostUtil.readTModelCore(new File((CatBoostUtilTest.class.getResource("/cbm/ClassificationIris.cbm")).toURI()));
+
+		PMML pmml = CatBoostUtil.encodePMML(modelCore);
+
+		List<String> leafIndexNames = new ArrayList<>();
+		List<String> leafValueNames = new ArrayList<>();
+		List<TreeModel> treeModels = new ArrayList<>();
+
+		Visitor visitor = new AbstractVisitor(){
+
+			@Override
+			public VisitorAction visit(DerivedField derivedField){
+				String name = (derivedField.getName()).getValue();
+
+				if(name.startsWith("leafIndex(")){
+					leafIndexNames.add(name);
+				} else
+
+				if(name.startsWith("leafValue(")){
+					leafValueNames.add(name);
+				}
+
+				return super.visit(derivedField);
+			}
+
+			@Override
+			public VisitorAction visit(TreeModel treeModel){
+				treeModels.add(treeModel);
+
+				return super.visit(treeModel);
+			}
+		};
+		visitor.applyTo(pmml);
+
+		TObliviousTrees obliviousTrees = modelCore.ObliviousTrees();
+
+		int numTrees = 0;
+
+		for(int i = 0; i < obliviousTrees.TreeSizesLength(); i++){
+
+			if(obliviousTrees.TreeSizes(i) > 0){
+				numTrees++;
+			}
+		}
+
+		assertEquals(numTrees, leafIndexNames.size());
+		assertEquals(numTrees * obliviousTrees.ApproxDimension(), leafValueNames.size());
+		assertTrue(treeModels.isEmpty());
+	}
+
+	@Test
+	public void resolveLookupTable(){
+		assertFalse(CatBoostUtil.resolveLookupTable(Collections.emptyMap(), 1));
+		assertTrue(CatBoostUtil.resolveLookupTable(Collections.emptyMap(), 3));
+
+		// An explicitly requested tree encoding disables the default sharing
+		assertFalse(CatBoostUtil.resolveLookupTable(Collections.singletonMap(HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE), 3));
+		assertFalse(CatBoostUtil.resolveLookupTable(Collections.singletonMap(HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.FALSE), 3));
+
+		assertFalse(CatBoostUtil.resolveLookupTable(ImmutableMap.of(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.TRUE, HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE), 1));
+
+		for(Map<String, ?> options : Arrays.asList(ImmutableMap.of(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.TRUE, HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE), ImmutableMap.of(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.TRUE, HasCatBoostOptions.OPTION_LOOKUP_TABLE, Boolean.FALSE))){
+
+			try {
+				CatBoostUtil.resolveLookupTable(options, 3);
+
+				fail();
+			} catch(IllegalArgumentException iae){
+				// Ignored
+			}
+		}
+	}
+
+	@Test
+	public void writeMetrics() throws Exception {
+		File file = new File((CatBoostUtilTest.class.getResource("/cbm/ClassificationIris.cbm")).toURI());
+
+		Map<String, ?> options = Collections.singletonMap(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.FALSE);
+
+		ConversionMetrics metrics = new ConversionMetrics();
+
+		CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(file, metrics);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		CatBoostUtil.writePMML(catBoostModel, options, os, metrics);
+
+		assertEquals(Arrays.asList(ConversionMetrics.PHASE_READ, ConversionMetrics.PHASE_PARSE_MAP, ConversionMetrics.PHASE_ENCODE_FEATURES, ConversionMetrics.PHASE_ENCODE_TREES, ConversionMetrics.PHASE_MARSHAL), new ArrayList<>((metrics.getPhaseNanos()).keySet()));
+
+		assertEquals((catBoostModel.getModelCore()).ObliviousTrees().TreeSizesLength(), metrics.getNumTrees());
+		assertEquals(os.size(), metrics.getOutputBytes());
+
+		ConversionMetrics encodeMetrics = new ConversionMetrics();
+
+		CatBoostUtil.encodePMML(catBoostModel, options, encodeMetrics);
+
+		assertTrue(metrics.getNumNodes() > 0);
+		assertEquals(metrics.getNumNodes(), encodeMetrics.getNumNodes());
+
+		assertTrue(metrics.getNumPredicates() > 0);
+		assertEquals(metrics.getNumPredicates(), encodeMetrics.getNumPredicates());
+
+		assertTrue(metrics.getNumFields() > 0);
+		assertEquals(metrics.getNumFields(), encodeMetrics.getNumFields());
+
+		assertEquals(0L, encodeMetrics.getOutputBytes());
+	}
+
+	@Test
+	public void estimateConversion() throws Exception {
+		CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(new File((CatBoostUtilTest.class.getResource("/cbm/ClassificationIris.cbm")).toURI()));
+
+		TModelCore modelCore = catBoostModel.getModelCore();
+
+		Map<String, ?> treeOptions = Collections.singletonMap(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.FALSE);
+
+		for(Map<String, ?> options : Arrays.asList(Collections.<String, Object>emptyMap(), treeOptions)){
+			ConversionEstimate estimate = CatBoostUtil.estimateConversion(modelCore, options);
+
+			ConversionMetrics metrics = new ConversionMetrics();
+
+			CatBoostUtil.writePMML(catBoostModel, options, new ByteArrayOutputStream(), metrics);
+
+			assertEquals(metrics.getNumTrees(), estimate.getNumTrees());
+
+			if(estimate.isLookupTable()){
+				assertEquals(0L, estimate.getNumNodes());
+			} else
+
+			{
+				assertEquals(metrics.getNumNodes(), estimate.getNumNodes());
+			}
+
+			assertTrue(estimate.getPmmlBytes() > metrics.getOutputBytes() / 2);
+			assertTrue(estimate.getPmmlBytes() < metrics.getOutputBytes() * 2);
+
+			assertTrue(estimate.getHeapBytes() <= estimate.getDocumentHeapBytes());
+		}
+
+		ConversionEstimate lookupEstimate = CatBoostUtil.estimateConversion(modelCore, Collections.emptyMap());
+		ConversionEstimate treeEstimate = CatBoostUtil.estimateConversion(modelCore, treeOptions);
+
+		assertEquals(5, (CatBoostUtil.estimateConversion(modelCore, Collections.singletonMap(HasCatBoostOptions.OPTION_NTREE_END, 5L))).getNumTrees());
+
+		assertTrue(treeEstimate.getHeapBytes() < lookupEstimate.getHeapBytes());
+
+		Map<String, ?> budgetOptions = Collections.singletonMap(HasCatBoostOptions.OPTION_MEMORY_BUDGET, lookupEstimate.getHeapBytes() - 1);
+
+		try {
+			CatBoostUtil.writePMML(catBoostModel, budgetOptions, new ByteArrayOutputStream());
+
+			fail();
+		} catch(IllegalArgumentException iae){
+			// Ignored
+		}
+
+		Map<String, ?> fallbackOptions = ImmutableMap.of(HasCatBoostOptions.OPTION_MEMORY_BUDGET, lookupEstimate.getHeapBytes() - 1, HasCatBoostOptions.OPTION_MEMORY_BUDGET_STREAMING_FALLBACK, Boolean.TRUE);
+
+		ConversionMetrics metrics = new ConversionMetrics();
+
+		CatBoostUtil.writePMML(catBoostModel, fallbackOptions, new ByteArrayOutputStream(), metrics);
+
+		assertEquals(treeEstimate.getNumNodes(), metrics.getNumNodes());
+	}
+
+	@Test
+	public void estimateCtrConversion() throws Exception {
+		URL url = CatBoostUtilTest.class.getResource("/cbm/ClassificationAudit.cbm");
+
+		File file = new File(url.toURI());
+
+		CatBoostModel mappedCatBoostModel = CatBoostUtil.readCatBoostModel(file);
+
+		CatBoostModel streamCatBoostModel;
+
+		try(InputStream is = url.openStream()){
+			streamCatBoostModel = CatBoostUtil.readCatBoostModel(is);
+		}
+
+		ConversionEstimate mappedEstimate = CatBoostUtil.estimateConversion(mappedCatBoostModel, Collections.emptyMap());
+		ConversionEstimate streamEstimate = CatBoostUtil.estimateConversion(streamCatBoostModel, Collections.emptyMap());
+
+		assertEquals(0L, mappedEstimate.getPayloadHeapBytes());
+		assertTrue(streamEstimate.getPayloadHeapBytes() > 0L && streamEstimate.getPayloadHeapBytes() <= file.length());
+
+		assertEquals(mappedEstimate.getHeapBytes() + streamEstimate.getPayloadHeapBytes(), streamEstimate.getHeapBytes());
+		assertEquals(mappedEstimate.getDocumentHeapBytes() + streamEstimate.getPayloadHeapBytes(), streamEstimate.getDocumentHeapBytes());
+
+		long numCtrRows = 0;
+
+		TObliviousTrees obliviousTrees = (mappedCatBoostModel.getModelCore()).ObliviousTrees();
+
+		for(int i = 0; i < obliviousTrees.CtrFeaturesLength(); i++){
+			numCtrRows += (CtrUtil.parseIndexHashes(mappedCatBoostModel.getCtrValueTable((obliviousTrees.CtrFeatures(i)).Ctr().Base()))).size();
+		}
+
+		assertTrue(numCtrRows > 0);
+		assertEquals(numCtrRows, mappedEstimate.getNumCtrRows());
+
+		ConversionEstimate modelCoreEstimate = CatBoostUtil.estimateConversion(mappedCatBoostModel.getModelCore(), Collections.emptyMap());
+
+		assertEquals(0L, modelCoreEstimate.getNumCtrRows());
+		assertTrue(modelCoreEstimate.getHeapBytes() < mappedEstimate.getHeapBytes());
+		assertTrue(modelCoreEstimate.getPmmlBytes() < mappedEstimate.getPmmlBytes());
+	}
+
+	@Test
+	public void writePMMLAsync() throws Exception {
+		CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(new File((CatBoostUtilTest.class.getResource("/cbm/ClassificationIris.cbm")).toURI()));
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+			CompletableFuture<ConversionMetrics> future = CatBoostUtil.writePMMLAsync(catBoostModel, Collections.emptyMap(), os, executor);
+
+			ConversionMetrics metrics = future.get();
+
+			assertTrue(os.size() > 0);
+			assertEquals(os.size(), metrics.getOutputBytes());
+
+			CountDownLatch started = new CountDownLatch(1);
+
+			OutputStream blockingOs = new OutputStream(){
+
+				@Override
+				public void write(int b){
+					started.countDown();
+
+					// Keep the interrupt status for the converter to see
+					while(!Thread.currentThread().isInterrupted()){
+						Thread.yield();
+					}
+				}
+			};
+
+			future = CatBoostUtil.writePMMLAsync(catBoostModel, Collections.singletonMap(HasCatBoostOptions.OPTION_SHARED_TREES, Boolean.FALSE), blockingOs, executor);
+
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			assertTrue(future.cancel(true));
+			assertTrue(future.isCancelled());
+
+			try {
+				future.get();
+
+				fail();
+			} catch(CancellationException ce){
+				// Ignored
+			}
+
+			// The executor thread is released, with its interrupt status cleared
+			future = CatBoostUtil.writePMMLAsync(catBoostModel, Collections.emptyMap(), new ByteArrayOutputStream(), executor);
+
+			assertTrue((future.get(10, TimeUnit.SECONDS)).getOutputBytes() > 0);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Thread.currentThread().interrupt();
+
+		try {
+			CatBoostUtil.writePMML(catBoostModel, Collections.emptyMap(), new ByteArrayOutputStream());
+
+			fail();
+		} catch(CancellationException ce){
+			// Ignored
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+	@Test
+	public void readOversizedTModelCore() throws Exception {
+		ByteBuffer byteBuffer = ByteBuffer.allocate(4 + 4 + 8)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		byteBuffer.put("CBM1".getBytes("US-ASCII"));
+		byteBuffer.putInt(0xffffffff);
+		byteBuffer.putLong(3L * 1024L * 1024L * 1024L);
+
+		try(InputStream is = new ByteArrayInputStream(byteBuffer.array())){
+			CatBoostUtil.readTModelCore(is);
+
+			fail();
+		} catch(IllegalArgumentException iae){
+			// Ignored
+		}
+	}
+
+	static
+	private String marshal(PMML pmml) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		MetroJAXBUtil.marshalPMML(pmml, os);
+
+		return stripTimestamp(os.toString("UTF-8"));
+	}
+
+	static
+	private String write(TModelCore modelCore, Map<String, ?> options) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		CatBoostUtil.writePMML(modelCore, options, os);
+
+		return stripTimestamp(os.toString("UTF-8"));
+	}
+
+	static
+	private String stripTimestamp(String string){
+		return string.replaceAll("<Timestamp>.*</Timestamp>", "");
+	}
+
+	static
+	private List<Map<FieldName, String>> loadRows(String dataset) throws Exception {
+		List<String> header = null;
+
+		List<Map<FieldName, String>> result = new ArrayList<>();
+
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(CatBoostUtilTest.class.getResourceAsStream("/csv/" + dataset + ".csv"), "UTF-8"))){
+
+			for(String line = reader.readLine(); line != null; line = reader.readLine()){
+				List<String> cells = Arrays.asList(line.split(","));
+
+				if(header == null){
+					header = cells;
+
+					continue;
+				}
+
+				Map<FieldName, String> row = new LinkedHashMap<>();
+
+				for(int i = 0; i < cells.size(); i++){
+					row.put(FieldName.create(header.get(i)), cells.get(i));
+				}
+
+				result.add(row);
+			}
+		}
+
+		return result;
+	}
+
+	static
+	private void assertResultsEquals(List<Double> expectedResults, List<Double> actualResults){
+		assertEquals(expectedResults.size(), actualResults.size());
+
+		for(int i = 0; i < expectedResults.size(); i++){
+			assertEquals(expectedResults.get(i), actualResults.get(i), 1e-9);
+		}
+	}
+
+	/**
+	 * @param name The name of the result field, or <code>null</code> for the target field.
+	 */
+	static
+	private List<Double> evaluate(Evaluator evaluator, List<Map<FieldName, String>> rows, FieldName name){
+		List<Double> result = new ArrayList<>();
+
+		for(Map<FieldName, String> row : rows){
+			Map<FieldName, FieldValue> arguments = new LinkedHashMap<>();
+
+			for(InputField inputField : evaluator.getInputFields()){
+				FieldName inputName = inputField.getName();
+
+				arguments.put(inputName, inputField.prepare(row.get(inputName)));
+			}
+
+			Map<FieldName, ?> results = evaluator.evaluate(arguments);
+
+			FieldName resultName = (name != null ? name : (Iterables.getOnlyElement(evaluator.getTargetFields())).getName());
+
+			result.add(((Number)EvaluatorUtil.decode(results.get(resultName))).doubleValue());
+		}
+
+		return result;
+	}
+}
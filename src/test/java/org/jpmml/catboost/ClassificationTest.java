@@ -22,6 +22,11 @@ import org.junit.Test;
 
 public class ClassificationTest extends CatBoostTest {
 
+	@Test
+	public void evaluateAudit() throws Exception {
+		evaluate("Classification", "Audit");
+	}
+
 	@Test
 	public void evaluateIris() throws Exception {
 		evaluate("Classification", "Iris");
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConversionCacheTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+	@Test
+	public void writePMML() throws Exception {
+		File cbmFile = getCbmFile("ClassificationIris");
+
+		ConversionCache cache = new ConversionCache(this.temporaryFolder.newFolder(), Long.MAX_VALUE);
+
+		byte[] missBytes = writePMML(cache, cbmFile, Collections.emptyMap());
+		byte[] hitBytes = writePMML(cache, cbmFile, Collections.singletonMap(HasCatBoostOptions.OPTION_PARALLELISM, 2));
+
+		assertEquals(1L, cache.getMisses());
+		assertEquals(1L, cache.getHits());
+
+		assertArrayEquals(missBytes, hitBytes);
+
+		writePMML(cache, cbmFile, Collections.singletonMap(HasCatBoostOptions.OPTION_COMPACT, Boolean.TRUE));
+
+		assertEquals(2L, cache.getMisses());
+	}
+
+	@Test
+	public void createKey() throws Exception {
+		File irisFile = getCbmFile("ClassificationIris");
+		File autoFile = getCbmFile("RegressionAuto");
+
+		String key = ConversionCache.createKey(irisFile, Collections.emptyMap());
+
+		assertEquals(key, ConversionCache.createKey(irisFile, Collections.emptyMap()));
+
+		assertNotEquals(key, ConversionCache.createKey(autoFile, Collections.emptyMap()));
+		assertNotEquals(key, ConversionCache.createKey(irisFile, Collections.singletonMap(HasCatBoostOptions.OPTION_BINARIZE, Boolean.TRUE)));
+
+		String version = ConversionCache.getConverterVersion();
+
+		// Qualified with a digest of the converter's class files
+		assertTrue(version, version.matches(".+\\+[0-9a-f]{64}"));
+	}
+
+	@Test
+	public void evict() throws Exception {
+		File irisFile = getCbmFile("ClassificationIris");
+		File autoFile = getCbmFile("RegressionAuto");
+
+		ConversionCache cache = new ConversionCache(this.temporaryFolder.newFolder(), 1L);
+
+		File irisPmmlFile = cache.getPMMLFile(irisFile, Collections.emptyMap());
+
+		assertTrue(irisPmmlFile.isFile());
+
+		File autoPmmlFile = cache.getPMMLFile(autoFile, Collections.emptyMap());
+
+		assertFalse(irisPmmlFile.exists());
+		assertTrue(autoPmmlFile.isFile());
+	}
+
+	@Test
+	public void writePMMLConcurrently() throws Exception {
+		List<File> cbmFiles = Arrays.asList(getCbmFile("ClassificationIris"), getCbmFile("ClassificationVersicolor"), getCbmFile("RegressionAuto"));
+
+		List<byte[]> expectedBytes = new ArrayList<>();
+
+		ConversionCache referenceCache = new ConversionCache(this.temporaryFolder.newFolder(), Long.MAX_VALUE);
+
+		for(File cbmFile : cbmFiles){
+			expectedBytes.add(writePMML(referenceCache, cbmFile, Collections.emptyMap()));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			// Concurrent misses on the same key are converted once
+			ConversionCache cache = new ConversionCache(this.temporaryFolder.newFolder(), Long.MAX_VALUE);
+
+			List<Callable<byte[]>> tasks = new ArrayList<>();
+
+			for(int i = 0; i < 8; i++){
+				tasks.add(() -> writePMML(cache, cbmFiles.get(0), Collections.emptyMap()));
+			}
+
+			for(Future<byte[]> future : executor.invokeAll(tasks)){
+				assertEquals(stripTimestamp(expectedBytes.get(0)), stripTimestamp(future.get()));
+			}
+
+			assertEquals(1L, cache.getMisses());
+			assertEquals(7L, cache.getHits());
+
+			// Every conversion evicts all other entries, except for the ones that are being copied
+			ConversionCache evictingCache = new ConversionCache(this.temporaryFolder.newFolder(), 1L);
+
+			tasks.clear();
+
+			for(int i = 0; i < 12; i++){
+				int index = (i % cbmFiles.size());
+
+				tasks.add(() -> writePMML(evictingCache, cbmFiles.get(index), Collections.emptyMap()));
+			}
+
+			List<Future<byte[]>> futures = executor.invokeAll(tasks);
+
+			// Evicted entries are converted again, with a new timestamp
+			for(int i = 0; i < futures.size(); i++){
+				assertEquals(stripTimestamp(expectedBytes.get(i % cbmFiles.size())), stripTimestamp((futures.get(i)).get()));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static
+	private byte[] writePMML(ConversionCache cache, File cbmFile, Map<String, ?> options) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		cache.writePMML(cbmFile, options, os);
+
+		return os.toByteArray();
+	}
+
+	static
+	private String stripTimestamp(byte[] bytes){
+		String string = new String(bytes, StandardCharsets.UTF_8);
+
+		return string.replaceAll("<Timestamp>.*</Timestamp>", "");
+	}
+
+	static
+	private File getCbmFile(String name) throws Exception {
+		return new File((ConversionCacheTest.class.getResource("/cbm/" + name + ".cbm")).toURI());
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import org.dmg.pmml.PMML;
+import org.jpmml.model.PMMLUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConversionServerTest {
+
+	@Test
+	public void convert() throws Exception {
+		byte[] cbmBytes;
+
+		try(InputStream is = ConversionServerTest.class.getResourceAsStream("/cbm/ClassificationIris.cbm")){
+			cbmBytes = ByteStreams.toByteArray(is);
+		}
+
+		ConversionServer server = new ConversionServer(new InetSocketAddress("127.0.0.1", 0), 2, cbmBytes.length);
+		server.start();
+
+		try {
+			InetSocketAddress address = server.getBoundAddress();
+
+			String baseUrl = "http://127.0.0.1:" + address.getPort();
+
+			HttpURLConnection connection = post(baseUrl + "/convert?compact=true", cbmBytes);
+
+			assertEquals(200, connection.getResponseCode());
+			assertEquals("chunked", connection.getHeaderField("Transfer-Encoding"));
+
+			try(InputStream is = connection.getInputStream()){
+				PMML pmml = PMMLUtil.unmarshal(is);
+
+				assertNotNull(pmml.getModels());
+			}
+
+			assertEquals(400, (post(baseUrl + "/convert?unknown=true", cbmBytes)).getResponseCode());
+			assertEquals(400, (post(baseUrl + "/convert", new byte[]{'C', 'B', 'M', '0'})).getResponseCode());
+			assertEquals(413, (post(baseUrl + "/convert", new byte[cbmBytes.length + 1])).getResponseCode());
+
+			HttpURLConnection statsConnection = (HttpURLConnection)(new URL(baseUrl + "/stats")).openConnection();
+
+			assertEquals(200, statsConnection.getResponseCode());
+
+			Map<?, ?> stats;
+
+			try(InputStream is = statsConnection.getInputStream()){
+				ObjectMapper objectMapper = new ObjectMapper();
+
+				stats = objectMapper.readValue(is, Map.class);
+			}
+
+			assertEquals(1, stats.get("converted"));
+			assertEquals(2, stats.get("failed"));
+			assertEquals(1, stats.get("rejected"));
+
+			try(Socket socket = new Socket(address.getAddress(), address.getPort())){
+				OutputStream os = socket.getOutputStream();
+
+				os.write(("POST /convert HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 1e3\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+				os.flush();
+
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+
+				assertTrue((reader.readLine()).startsWith("HTTP/1.1 400 "));
+			}
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void convertDefaultOptions() throws Exception {
+		byte[] cbmBytes;
+
+		try(InputStream is = ConversionServerTest.class.getResourceAsStream("/cbm/RegressionAuto.cbm")){
+			cbmBytes = ByteStreams.toByteArray(is);
+		}
+
+		ConversionServer server = new ConversionServer(new InetSocketAddress("127.0.0.1", 0), 1, cbmBytes.length);
+		server.setDefaultOptions(Collections.singletonMap(HasCatBoostOptions.OPTION_STAGED_NTREE_ENDS, Arrays.asList(5)));
+		server.start();
+
+		try {
+			String baseUrl = "http://127.0.0.1:" + (server.getBoundAddress()).getPort();
+
+			assertTrue(readString(post(baseUrl + "/convert", cbmBytes)).contains("partialSum(5)"));
+
+			// Query parameters override default options
+			String pmml = readString(post(baseUrl + "/convert?staged_ntree_ends=10", cbmBytes));
+
+			assertTrue(pmml.contains("partialSum(10)"));
+			assertFalse(pmml.contains("partialSum(5)"));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	static
+	private String readString(HttpURLConnection connection) throws IOException {
+		assertEquals(200, connection.getResponseCode());
+
+		try(InputStream is = connection.getInputStream()){
+			return new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
+		}
+	}
+
+	static
+	private HttpURLConnection post(String url, byte[] bytes) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection)(new URL(url)).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(bytes.length);
+
+		try(OutputStream os = connection.getOutputStream()){
+			os.write(bytes);
+		}
+
+		return connection;
+	}
+}
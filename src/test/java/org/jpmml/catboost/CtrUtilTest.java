@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import NCatBoostFbs.TCtrValueTable;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CtrUtilTest {
+
+	@Test
+	public void invertHash(){
+		Random random = new Random(42L);
+
+		for(int i = 0; i < 100; i++){
+			long left = random.nextLong();
+			long right = random.nextLong();
+
+			assertEquals(left, CtrUtil.invertHash(CtrUtil.calculateHash(left, right), right));
+		}
+	}
+
+	@Test
+	public void countIndexHashes() throws Exception {
+		CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(new File((CtrUtilTest.class.getResource("/cbm/ClassificationAudit.cbm")).toURI()));
+
+		for(TCtrValueTable ctrValueTable : catBoostModel.getCtrValueTables()){
+			assertEquals((CtrUtil.parseIndexHashes(ctrValueTable)).size(), CtrUtil.countIndexHashes(ctrValueTable));
+		}
+	}
+
+	@Test
+	public void findCombinations(){
+		Random random = new Random(42L);
+
+		List<long[]> valueHashes = Arrays.asList(createValueHashes(random, 40), new long[]{0L, 1L}, createValueHashes(random, 25), new long[]{0L, 1L});
+
+		List<int[]> combinations = new ArrayList<>();
+
+		for(int i = 0; i < 40; i++){
+
+			for(int j = 0; j < 2; j++){
+
+				for(int k = 0; k < 25; k++){
+
+					for(int l = 0; l < 2; l++){
+						combinations.add(new int[]{i, j, k, l});
+					}
+				}
+			}
+		}
+
+		List<int[]> expectedCombinations = new ArrayList<>();
+
+		Set<Long> hashes = new LinkedHashSet<>();
+
+		for(int[] combination : combinations){
+
+			if(random.nextInt(10) == 0){
+				expectedCombinations.add(combination);
+
+				hashes.add(CtrUtil.calculateHash(valueHashes, combination));
+			}
+		}
+
+		// Hashes of combinations that are outside of the candidate values
+		for(int i = 0; i < 100; i++){
+			hashes.add(random.nextLong());
+		}
+
+		List<int[]> actualCombinations = CtrUtil.findCombinations(valueHashes, hashes);
+
+		assertEquals(expectedCombinations.size(), actualCombinations.size());
+
+		for(int i = 0; i < expectedCombinations.size(); i++){
+			assertEquals(Arrays.toString(expectedCombinations.get(i)), Arrays.toString(actualCombinations.get(i)));
+		}
+	}
+
+	static
+	private long[] createValueHashes(Random random, int size){
+		long[] result = new long[size];
+
+		for(int i = 0; i < size; i++){
+			result[i] = random.nextInt();
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class HashUtilTest {
+
+	@Test
+	public void hashCatFeature(){
+		// Hash values as stored in the ClassificationAudit model file
+		assertEquals(-2114564283, HashUtil.hashCatFeature("Female"));
+		assertEquals(445365424, HashUtil.hashCatFeature("HSgrad"));
+		assertEquals(-1625715796, HashUtil.hashCatFeature("Yr12"));
+		assertEquals(1616544067, HashUtil.hashCatFeature("Executive"));
+		assertEquals(-1107354364, HashUtil.hashCatFeature("Protective"));
+		assertEquals(400461576, HashUtil.hashCatFeature("Professional"));
+		assertEquals(261588508, HashUtil.hashCatFeature("Married-spouse-absent"));
+
+		// Cached
+		assertEquals(-2114564283, HashUtil.hashCatFeature("Female"));
+	}
+
+	@Test
+	public void hashCatFeatureNative() throws Exception {
+		assumeTrue(isNativeAvailable());
+
+		String[] values = {"", "a", "ab", "abcd", "abcdefgh", "abcdefghi", "abcdefghijklmnopq", "Married-spouse-absent", "\u00e4\u00f6\u00fc\u00df", createString(33), createString(64), createString(65), createString(128), createString(1000)};
+
+		for(String value : values){
+			assertEquals(value, HashUtil.hashCatFeatureNative(value), HashUtil.hashCatFeature(value));
+		}
+	}
+
+	static
+	private String createString(int length){
+		StringBuilder sb = new StringBuilder(length);
+
+		for(int i = 0; i < length; i++){
+			sb.append((char)('a' + (i * 7) % 26));
+		}
+
+		return sb.toString();
+	}
+
+	static
+	private boolean isNativeAvailable(){
+
+		try {
+			HashUtil.hashCatFeatureNative("");
+
+			return true;
+		} catch(ReflectiveOperationException | LinkageError e){
+			return false;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import com.google.common.collect.Iterables;
+import org.dmg.pmml.FieldName;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.EvaluatorUtil;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.ModelEvaluatorBuilder;
+import org.jpmml.model.PMMLUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MainTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+	@Test
+	public void readRecord() throws Exception {
+		LineNumberReader reader = new LineNumberReader(new StringReader("a,\"b,c\",\"d \"\"e\"\"\",\nf,\"g\nh\",i\n"));
+
+		assertEquals(Arrays.asList("a", "b,c", "d \"e\"", ""), Main.readRecord(reader, ','));
+		assertEquals(Arrays.asList("f", "g\nh", "i"), Main.readRecord(reader, ','));
+		assertNull(Main.readRecord(reader, ','));
+
+		reader = new LineNumberReader(new StringReader("a\t\"b"));
+
+		try {
+			Main.readRecord(reader, '\t');
+
+			fail();
+		} catch(IllegalArgumentException iae){
+			// Ignored
+		}
+	}
+
+	@Test
+	public void readCatFeatureValues() throws Exception {
+		CatBoostModel catBoostModel = CatBoostUtil.readCatBoostModel(new File((MainTest.class.getResource("/cbm/ClassificationAudit.cbm")).toURI()));
+
+		File csvFile = new File((MainTest.class.getResource("/csv/Audit.csv")).toURI());
+
+		Map<String, Set<String>> catFeatureValues = Main.readCatFeatureValues(catBoostModel, csvFile, ',');
+
+		assertTrue((catFeatureValues.get("Gender")).containsAll(Arrays.asList("Female", "Male")));
+
+		File raggedCsvFile = this.temporaryFolder.newFile("ragged.csv");
+
+		List<String> lines = new ArrayList<>(Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8).subList(0, 3));
+		lines.add("38,Private");
+
+		Files.write(raggedCsvFile.toPath(), lines, StandardCharsets.UTF_8);
+
+		try {
+			Main.readCatFeatureValues(catBoostModel, raggedCsvFile, ',');
+
+			fail();
+		} catch(IllegalArgumentException iae){
+			assertTrue(iae.getMessage(), (iae.getMessage()).startsWith("Line 4 "));
+		}
+	}
+
+	@Test
+	public void runBatchDirectory() throws Exception {
+		File inputDir = this.temporaryFolder.newFolder("cbm");
+		File outputDir = this.temporaryFolder.newFolder("pmml");
+
+		copyModel("RegressionAuto", new File(inputDir, "RegressionAuto.cbm"));
+		copyModel("ClassificationVersicolor", new File(inputDir, "ClassificationVersicolor.cbm"));
+
+		Files.write((new File(inputDir, "Broken.cbm")).toPath(), "CBM1".getBytes(StandardCharsets.US_ASCII));
+		Files.write((new File(inputDir, "README.txt")).toPath(), "Not a model".getBytes(StandardCharsets.US_ASCII));
+
+		String output = run(false, "--cbm-input-dir", inputDir.getPath(), "--pmml-output-dir", outputDir.getPath(), "--batch-threads", "2");
+
+		assertTrue(output, output.contains("Failed to convert " + new File(inputDir, "Broken.cbm")));
+		assertTrue(output, output.contains("Converted 2 of 3 models (1 failed)"));
+
+		assertTrue((new File(outputDir, "RegressionAuto.pmml")).isFile());
+		assertTrue((new File(outputDir, "ClassificationVersicolor.pmml")).isFile());
+
+		// Failed conversions do not leave truncated files behind
+		assertFalse((new File(outputDir, "Broken.pmml")).exists());
+
+		copyModel("RegressionAuto", new File(inputDir, "Broken.cbm"));
+
+		output = run(true, "--cbm-input-dir", inputDir.getPath(), "--pmml-output-dir", outputDir.getPath());
+
+		assertTrue(output, output.contains("Converted 3 of 3 models (0 failed)"));
+
+		copyModel("RegressionAuto", new File(inputDir, "RegressionAuto.cbm.gz"));
+
+		try {
+			run(false, "--cbm-input-dir", inputDir.getPath(), "--pmml-output-dir", outputDir.getPath());
+
+			fail();
+		} catch(IllegalArgumentException iae){
+			// Ignored
+		}
+	}
+
+	@Test
+	public void runBatchManifest() throws Exception {
+		File inputDir = this.temporaryFolder.newFolder("cbm");
+
+		copyModel("RegressionAuto", new File(inputDir, "RegressionAuto.cbm"));
+		copyModel("ClassificationIris", new File(inputDir, "ClassificationIris.cbm"));
+
+		File manifest = new File(inputDir, "manifest.txt");
+
+		Files.write(manifest.toPath(), Arrays.asList("# Models", "RegressionAuto.cbm", "", "ClassificationIris.cbm\tiris/Iris.pmml"), StandardCharsets.UTF_8);
+
+		(new File(inputDir, "iris")).mkdir();
+
+		String output = run(true, "--cbm-manifest", manifest.getPath());
+
+		assertTrue(output, output.contains("Converted 2 of 2 models (0 failed)"));
+
+		assertTrue((new File(inputDir, "RegressionAuto.pmml")).isFile());
+		assertTrue((new File(inputDir, "iris/Iris.pmml")).isFile());
+
+		List<List<String>> invalidManifests = Arrays.asList(
+			Arrays.asList("RegressionAuto.cbm", "RegressionAuto.cbm\tAuto.pmml"),
+			Arrays.asList("RegressionAuto.cbm\tModel.pmml", "ClassificationIris.cbm\tModel.pmml")
+		);
+
+		for(List<String> invalidManifest : invalidManifests){
+			Files.write(manifest.toPath(), invalidManifest, StandardCharsets.UTF_8);
+
+			try {
+				run(false, "--cbm-manifest", manifest.getPath());
+
+				fail();
+			} catch(IllegalArgumentException iae){
+				// Ignored
+			}
+		}
+
+		assertFalse((new File(inputDir, "Model.pmml")).exists());
+	}
+
+	@Test
+	public void runTruncatedScorer() throws Exception {
+		File inputFile = new File((MainTest.class.getResource("/cbm/RegressionAuto.cbm")).toURI());
+
+		File pmmlFile = this.temporaryFolder.newFile("RegressionAuto.pmml");
+		File scorerFile = this.temporaryFolder.newFile("RegressionAuto.cbsc");
+
+		run(true, "--cbm-input", inputFile.getPath(), "--pmml-output", pmmlFile.getPath(), "--scorer-output", scorerFile.getPath(), "--X-ntree-end", "5");
+
+		CatBoostScorer scorer = CatBoostScorerUtil.readScorer(scorerFile);
+
+		assertEquals(5, (scorer.getTreeSizes()).length);
+
+		assertScorerEquals(pmmlFile, scorer::predict);
+
+		run(true, "--cbm-input", inputFile.getPath(), "--pmml-output", pmmlFile.getPath(), "--scorer-output", scorerFile.getPath(), "--X-prune-tolerance", "0.6", "--X-leaf-value-precision", "1");
+
+		CatBoostScorer compressedScorer = CatBoostScorerUtil.readScorer(scorerFile);
+
+		assertTrue((compressedScorer.getTreeSizes()).length < 17);
+
+		assertScorerEquals(pmmlFile, compressedScorer::predict);
+
+		try {
+			run(false, "--cbm-input", inputFile.getPath(), "--pmml-output", pmmlFile.getPath(), "--scorer-output", scorerFile.getPath(), "--X-compact-tolerance", "0.1");
+
+			fail();
+		} catch(ParameterException pe){
+			// Ignored
+		}
+	}
+
+	@Test
+	public void runTruncatedGeneratedScorer() throws Exception {
+		File inputFile = new File((MainTest.class.getResource("/cbm/RegressionAuto.cbm")).toURI());
+
+		File pmmlFile = this.temporaryFolder.newFile("RegressionAuto.pmml");
+		File javaFile = this.temporaryFolder.newFile("TruncatedScorer.java");
+		File classFile = this.temporaryFolder.newFile("TruncatedScorer.class");
+
+		String className = "org.jpmml.catboost.generated.TruncatedScorer";
+
+		run(true, "--cbm-input", inputFile.getPath(), "--pmml-output", pmmlFile.getPath(), "--scorer-java-output", javaFile.getPath(), "--scorer-class-output", classFile.getPath(), "--scorer-class-name", className, "--X-ntree-end", "5");
+
+		String source = new String(Files.readAllBytes(javaFile.toPath()), StandardCharsets.UTF_8);
+
+		assertEquals(source, ScorerGenerator.generateSource(new CatBoostScorer(CatBoostScorerTest.loadModelCore("RegressionAuto"), Collections.singletonMap(HasCatBoostOptions.OPTION_NTREE_END, 5)), className));
+
+		Scorer scorer = ScorerGenerator.load(className, Files.readAllBytes(classFile.toPath()));
+
+		assertScorerEquals(pmmlFile, row -> {
+			double[] result = new double[scorer.getNumOutputs()];
+
+			scorer.predict(row, result);
+
+			return result;
+		});
+	}
+
+	static
+	private void copyModel(String name, File file) throws Exception {
+		Files.copy((new File((MainTest.class.getResource("/cbm/" + name + ".cbm")).toURI())).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Compares scorer predictions against the predictions of the PMML model for the Auto dataset.
+	 */
+	static
+	private void assertScorerEquals(File pmmlFile, Function<float[], double[]> scorer) throws Exception {
+		Evaluator evaluator;
+
+		try(InputStream is = new FileInputStream(pmmlFile)){
+			evaluator = new ModelEvaluatorBuilder(PMMLUtil.unmarshal(is))
+				.build();
+		}
+
+		List<List<String>> table = CatBoostScorerTest.loadTable("/csv/Auto.csv");
+
+		List<String> header = table.get(0);
+
+		List<String> featureNames = new ArrayList<>();
+
+		for(InputField inputField : evaluator.getInputFields()){
+			featureNames.add((inputField.getName()).getValue());
+		}
+
+		float[][] input = CatBoostScorerTest.loadInput("Auto", featureNames);
+
+		FieldName targetName = (Iterables.getOnlyElement(evaluator.getTargetFields())).getName();
+
+		for(int row = 0; row < input.length; row++){
+			List<String> values = table.get(row + 1);
+
+			Map<FieldName, FieldValue> arguments = new LinkedHashMap<>();
+
+			for(InputField inputField : evaluator.getInputFields()){
+				FieldName name = inputField.getName();
+
+				arguments.put(name, inputField.prepare(values.get(header.indexOf(name.getValue()))));
+			}
+
+			Map<FieldName, ?> results = evaluator.evaluate(arguments);
+
+			double expected = ((Number)EvaluatorUtil.decode(results.get(targetName))).doubleValue();
+
+			assertEquals(expected, (scorer.apply(input[row]))[0], 1e-10);
+		}
+	}
+
+	/**
+	 * @return The console output of the application.
+	 */
+	static
+	private String run(boolean success, String... args) throws Exception {
+		Main main = new Main();
+
+		JCommander commander = new JCommander(main);
+		commander.parse(args);
+
+		main.validate();
+
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		PrintStream bufferOut = new PrintStream(buffer, true, "UTF-8");
+
+		System.setOut(bufferOut);
+		System.setErr(bufferOut);
+
+		try {
+			assertEquals(success, main.run());
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+
+		return buffer.toString("UTF-8");
+	}
+}
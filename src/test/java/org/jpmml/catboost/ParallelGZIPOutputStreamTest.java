@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelGZIPOutputStreamTest {
+
+	@Test
+	public void write() throws Exception {
+		byte[] data = new byte[10 * 1000 + 7];
+
+		Random random = new Random(42);
+
+		for(int i = 0; i < data.length; i++){
+			// Compressible, but not trivially so
+			data[i] = (byte)('a' + random.nextInt(4));
+		}
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		try(OutputStream gzipOs = new ParallelGZIPOutputStream(os, 3, 1000)){
+			gzipOs.write(data, 0, 1);
+			gzipOs.write(data[1]);
+			gzipOs.write(data, 2, data.length - 2);
+		}
+
+		assertArrayEquals(data, decompress(os.toByteArray()));
+	}
+
+	@Test
+	public void writeEmpty() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		try(OutputStream gzipOs = new ParallelGZIPOutputStream(os, 2)){
+		}
+
+		assertEquals(0, (decompress(os.toByteArray())).length);
+	}
+
+	static
+	private byte[] decompress(byte[] bytes) throws IOException {
+
+		try(GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(bytes))){
+			return ByteStreams.toByteArray(is);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019 Villu Ruusmann
+ *
+ * This file is part of JPMML-CatBoost
+ *
+ * JPMML-CatBoost is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPMML-CatBoost is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JPMML-CatBoost.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpmml.catboost;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScorerGeneratorTest {
+
+	@Test
+	public void generateScorer() throws Exception {
+		String[][] names = {{"Classification", "Iris"}, {"Classification", "Versicolor"}, {"Regression", "Auto"}};
+
+		for(String[] name : names){
+			CatBoostScorer scorer = new CatBoostScorer(CatBoostScorerTest.loadModelCore(name[0] + name[1]));
+
+			Scorer generatedScorer = ScorerGenerator.generateScorer(scorer);
+
+			assertEquals(scorer.getFeatureNames(), generatedScorer.getFeatureNames());
+			assertEquals(scorer.getNumDimensions(), generatedScorer.getNumDimensions());
+			assertEquals(scorer.getNumOutputs(), generatedScorer.getNumOutputs());
+
+			// Spread trees over many small methods
+			String className = "org.jpmml.catboost.generated." + name[0] + name[1] + "Scorer";
+
+			String source = ScorerGenerator.generateSource(scorer, className, 10);
+
+			assertTrue(source.contains("trees1("));
+
+			byte[] bytecode = ScorerGenerator.compile(className, source);
+
+			// Class file major version 52 corresponds to Java 8
+			assertEquals(52, ((bytecode[6] & 0xFF) << 8) | (bytecode[7] & 0xFF));
+
+			Scorer splitScorer = ScorerGenerator.load(className, bytecode);
+
+			float[][] input = CatBoostScorerTest.loadInput(name[1], scorer.getFeatureNames());
+
+			for(float[] row : input){
+				double[] rawResult = new double[scorer.getNumDimensions()];
+				double[] generatedRawResult = new double[scorer.getNumDimensions()];
+
+				scorer.predictRaw(row, rawResult);
+				generatedScorer.predictRaw(row, generatedRawResult);
+
+				assertArrayEquals(rawResult, generatedRawResult, 0d);
+
+				double[] result = scorer.predict(row);
+
+				double[] generatedResult = new double[scorer.getNumOutputs()];
+				double[] splitResult = new double[scorer.getNumOutputs()];
+
+				generatedScorer.predict(row, generatedResult);
+				splitScorer.predict(row, splitResult);
+
+				assertArrayEquals(result, generatedResult, 0d);
+				assertArrayEquals(result, splitResult, 0d);
+			}
+		}
+	}
+}